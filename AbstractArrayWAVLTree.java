@@ -0,0 +1,454 @@
+import java.util.Arrays;
+
+/**
+ *
+ * AbstractArrayWAVLTree
+ *
+ * The rank and rotation engine of the array based WAVL Trees. Nodes are slots
+ * in parallel primitive arrays (struct of arrays) linked by int indices, index 0
+ * is the shared external node (EXT), and deleted slots are kept on a free list
+ * for reuse by later inserts. Ranks, rotations and rebalance counts follow
+ * WAVLTree.
+ *
+ * The engine reads and writes nodes only through the node accessors (rank(node),
+ * setRank(node, r), ...), so a subclass may keep the slots elsewhere by overriding
+ * them with capacity and growNodes: OffHeapWAVLTree keeps them in a ByteBuffer.
+ * While no such subclass is loaded the JIT binds the accessors to the arrays.
+ *
+ * The engine never looks at keys or values: a subclass keeps them in its own
+ * arrays (primitive ones, so nothing is boxed), finds where a key belongs, and
+ * calls insertNode and deleteNode to do the structural work. A subclass that
+ * keeps data per subtree (e.g. IntervalWAVLTree's max end) overrides augment.
+ *
+ */
+
+public abstract class AbstractArrayWAVLTree {
+
+	protected static final int EXT = 0;
+	protected static final int DEFAULT_CAPACITY = 16;
+
+	protected int[] rank;
+	protected int[] left;
+	protected int[] right;
+	protected int[] parent;
+	protected int[] size;
+
+	protected int root = EXT;
+	protected int max = EXT;
+	protected int min = EXT;
+	protected int next = 1; //first slot that was never used
+	protected int free = EXT; //head of the free list, linked through the left sons
+
+
+	/**
+	 * protected AbstractArrayWAVLTree(int initialCapacity)
+	 *
+	 * allocates the node arrays. the subclass allocates its key and value arrays
+	 * with length capacity()
+	 */
+	protected AbstractArrayWAVLTree(int initialCapacity) {
+		int capacity = Math.max(2, initialCapacity + 1);
+		rank = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		size = new int[capacity];
+		rank[EXT] = -1; //external node rank is -1, subtree size 0
+	}
+
+	/**
+	 * protected AbstractArrayWAVLTree()
+	 *
+	 * allocates no node arrays, for a subclass that overrides the node accessors,
+	 * capacity and growNodes. the subclass gives EXT rank -1 and subtree size 0.
+	 */
+	protected AbstractArrayWAVLTree() {
+	}
+
+	/**
+	 * protected abstract void growItems(int capacity)
+	 *
+	 * grows the subclass' key and value arrays to capacity
+	 */
+	protected abstract void growItems(int capacity);
+
+	/**
+	 * protected abstract void moveItem(int from, int to)
+	 *
+	 * copies the key and value of slot from to slot to
+	 */
+	protected abstract void moveItem(int from, int to);
+
+	/**
+	 * protected abstract void clearItem(int node)
+	 *
+	 * drops the references slot node holds, if any, so they can be collected
+	 */
+	protected abstract void clearItem(int node);
+
+	/**
+	 * protected void augment(int node)
+	 *
+	 * recomputes the subclass' data of the subtree of node from the item of node and
+	 * the data of its sons. called bottom up wherever subtree sizes change, and for
+	 * both nodes of a rotation. does nothing by default.
+	 */
+	protected void augment(int node) {
+	}
+
+	protected int capacity() {
+		return rank.length;
+	}
+
+	protected int rank(int node) { return rank[node]; }
+	protected int left(int node) { return left[node]; }
+	protected int right(int node) { return right[node]; }
+	protected int parent(int node) { return parent[node]; }
+	protected int size(int node) { return size[node]; }
+
+	protected void setRank(int node, int r) { rank[node] = r; }
+	protected void setLeft(int node, int l) { left[node] = l; }
+	protected void setRight(int node, int r) { right[node] = r; }
+	protected void setParent(int node, int p) { parent[node] = p; }
+	protected void setSize(int node, int s) { size[node] = s; }
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 *
+	 */
+	public boolean empty() {
+		return root == EXT;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree.
+	 *
+	 */
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * private int singleRotation(int x, boolean toRight)
+	 *
+	 * rotates x above its parent z (to the right if x is a left son), fixes
+	 * subtree sizes and demotes z. returns z.
+	 */
+	private int singleRotation(int x, boolean toRight) {
+		int z = parent(x);
+		int tempSBS = size(x); //saves temp subTreeSize for reordering
+		int g = parent(z);
+		if (z == root)
+			root = x;
+		else if (right(g) == z) //pair x with z's parent
+			setRight(g, x);
+		else
+			setLeft(g, x);
+		setParent(x, g);
+		setSize(x, size(z));
+
+		if (toRight) {
+			int b = right(x);
+			setLeft(z, b);
+			setSize(z, size(z) - tempSBS + size(b));
+			setParent(b, z);
+			setRight(x, z);
+		}
+		else {
+			int b = left(x);
+			setRight(z, b);
+			setSize(z, size(z) - tempSBS + size(b));
+			setParent(b, z);
+			setLeft(x, z);
+		}
+		setParent(z, x);
+		if (left(z) == EXT && right(z) == EXT) {
+			setRank(z, 0);
+			setSize(z, 1);
+		}
+		else
+			setRank(z, rank(z) - 1);
+		augment(z);
+		augment(x);
+		return z;
+	}
+
+	/**
+	 * protected int newNode(int p)
+	 *
+	 * returns a fresh leaf slot with parent p, for the subclass to store an item in
+	 * before passing it to insertNode. may grow the arrays.
+	 */
+	protected int newNode(int p) {
+		int node;
+		if (free != EXT) {
+			node = free;
+			free = left(node);
+		}
+		else {
+			if (next == capacity())
+				grow();
+			node = next++;
+		}
+		setRank(node, 0);
+		setSize(node, 1);
+		setLeft(node, EXT);
+		setRight(node, EXT);
+		setParent(node, p);
+		return node;
+	}
+
+	/**
+	 * protected int insertNode(int node, int p, boolean asLeft)
+	 *
+	 * hangs the new leaf node under p (as its left son if asLeft), or makes it the
+	 * root if p is EXT, and rebalances. returns the number of rebalancing operations,
+	 * counted as in WAVLTree.insert.
+	 */
+	protected int insertNode(int node, int p, boolean asLeft) {
+		augment(node);
+		if (p == EXT) {
+			root = node;
+			min = node;
+			max = node;
+			return 0;
+		}
+		if (asLeft) {
+			setLeft(p, node);
+			if (p == min) //a new left son of the min is the new min
+				min = node;
+		}
+		else {
+			setRight(p, node);
+			if (p == max)
+				max = node;
+		}
+		for (int temp = p; temp != EXT; temp = parent(temp)) {
+			setSize(temp, size(temp) + 1);
+			augment(temp);
+		}
+
+		int current = p;
+		if (left(current) != EXT && right(current) != EXT) //parent of inserted wasn't a leaf
+			return 0;
+		int countBalance = 1;
+		setRank(current, rank(current) + 1);
+		p = parent(current);
+		while (p != EXT && rank(p) == rank(current)) { //while promotion makes rank dif 0
+			if (rank(p) - rank(right(p)) == 2 || rank(p) - rank(left(p)) == 2) {
+				if (right(p) == current) {
+					if (rank(current) == rank(left(current)) + 2) {
+						singleRotation(current, false);
+						return 2 + countBalance;
+					}
+					int rotator = left(current);
+					singleRotation(rotator, true);
+					singleRotation(rotator, false);
+					setRank(rotator, rank(rotator) + 1);
+					return 5 + countBalance;
+				}
+				else {
+					if (rank(current) == rank(right(current)) + 2) {
+						singleRotation(current, true);
+						return 2 + countBalance;
+					}
+					int rotator = right(current);
+					singleRotation(rotator, false);
+					singleRotation(rotator, true);
+					setRank(rotator, rank(rotator) + 1);
+					return 5 + countBalance;
+				}
+			}
+			current = p;
+			setRank(current, rank(current) + 1);
+			p = parent(p);
+			countBalance++;
+		}
+		return countBalance;
+	}
+
+	/**
+	 * protected int deleteNode(int current)
+	 *
+	 * removes the item of slot current from the tree and rebalances. a binary node
+	 * takes its predecessor's item (moveItem) and the predecessor's slot is freed.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete.
+	 */
+	protected int deleteNode(int current) {
+		if (current == min)
+			min = successor(current);
+		if (current == max)
+			max = predeccessor(current);
+
+		if (left(current) != EXT && right(current) != EXT) { //binary: move the predecessor up
+			int pred = left(current);
+			while (right(pred) != EXT)
+				pred = right(pred);
+			if (pred == min)
+				min = current;
+			moveItem(pred, current);
+			current = pred;
+		}
+
+		int p = parent(current);
+		int child = left(current) != EXT ? left(current) : right(current);
+		if (p == EXT)
+			root = child;
+		else if (right(p) == current)
+			setRight(p, child);
+		else
+			setLeft(p, child);
+		if (child != EXT)
+			setParent(child, p);
+		freeNode(current);
+		for (int temp = p; temp != EXT; temp = parent(temp)) { //passes current too, if it took the predecessor's item
+			setSize(temp, size(temp) - 1);
+			augment(temp);
+		}
+
+		if (p == EXT)
+			return 0;
+		int countBalance = 0;
+		if (left(p) == EXT && right(p) == EXT && rank(p) != 0) { //father is now a 2,2 leaf
+			setRank(p, 0);
+			countBalance++;
+		}
+		return countBalance + rebalance(p);
+	}
+
+	private int rebalance(int p) {
+		int countBalance = 0;
+		while (p != EXT) {
+			int delCase = deleteCases(p);
+			if (delCase == 1) {
+				setRank(p, rank(p) - 1);
+				countBalance += 1;
+			}
+			else if (delCase != 0) {
+				boolean sonIsRight = rank(p) - rank(right(p)) == 1;
+				int son = sonIsRight ? right(p) : left(p);
+				if (delCase == 2) { //double demote
+					setRank(p, rank(p) - 1);
+					setRank(son, rank(son) - 1);
+					countBalance += 2;
+				}
+				else if (delCase == 3) {
+					setRank(son, rank(son) + 1);
+					p = singleRotation(son, !sonIsRight);
+					countBalance += 3;
+				}
+				else {
+					int sonSon = sonIsRight ? left(son) : right(son);
+					setRank(sonSon, rank(sonSon) + 1);
+					singleRotation(sonSon, sonIsRight);
+					setRank(sonSon, rank(sonSon) + 1);
+					p = singleRotation(sonSon, !sonIsRight);
+					if (left(p) != EXT || right(p) != EXT) //rotation only demoted z once
+						setRank(p, rank(p) - 1);
+					countBalance += 5;
+				}
+			}
+			p = parent(p);
+		}
+		return countBalance;
+	}
+
+	private int deleteCases(int p) {
+		int leftDiff = rank(p) - rank(left(p));
+		int rightDiff = rank(p) - rank(right(p));
+		if (leftDiff < 3 && rightDiff < 3) //all is fine
+			return 0;
+		int son = leftDiff >= 3 ? right(p) : left(p);
+		int siblingDiff = leftDiff >= 3 ? rightDiff : leftDiff;
+		if (siblingDiff == 2) //only need to demote parent by 1
+			return 1;
+		int outer = leftDiff >= 3 ? right(son) : left(son);
+		int inner = leftDiff >= 3 ? left(son) : right(son);
+		if (rank(son) - rank(outer) == 2 && rank(son) - rank(inner) == 2) //double demotion
+			return 2;
+		if (rank(son) - rank(outer) == 1)
+			return 3;
+		return 4;
+	}
+
+	protected int successor(int x) {
+		if (x == max) //no succesor
+			return EXT;
+		if (right(x) != EXT) {
+			x = right(x);
+			while (left(x) != EXT)
+				x = left(x);
+			return x;
+		}
+		while (left(parent(x)) != x)
+			x = parent(x);
+		return parent(x);
+	}
+
+	protected int predeccessor(int x) {
+		if (x == min)
+			return EXT;
+		if (left(x) != EXT) {
+			x = left(x);
+			while (right(x) != EXT)
+				x = right(x);
+			return x;
+		}
+		while (right(parent(x)) != x)
+			x = parent(x);
+		return parent(x);
+	}
+
+	/**
+	 * protected int selectNode(int i)
+	 *
+	 * Returns the slot of the i'th smallest key, or EXT if there is no such key
+	 */
+	protected int selectNode(int i) {
+		if (i < 1 || i > size())
+			return EXT;
+		int current = root;
+		while (true) {
+			int s = size(left(current));
+			if (s + 1 == i)
+				return current;
+			if (i <= s)
+				current = left(current);
+			else {
+				current = right(current);
+				i -= s + 1;
+			}
+		}
+	}
+
+	private void freeNode(int node) {
+		clearItem(node);
+		setParent(node, EXT);
+		setRight(node, EXT);
+		setLeft(node, free);
+		free = node;
+	}
+
+	private void grow() {
+		int capacity = capacity() * 2;
+		growNodes(capacity);
+		growItems(capacity);
+	}
+
+	/**
+	 * protected void growNodes(int capacity)
+	 *
+	 * grows the node arrays to capacity
+	 */
+	protected void growNodes(int capacity) {
+		rank = Arrays.copyOf(rank, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		size = Arrays.copyOf(size, capacity);
+	}
+}
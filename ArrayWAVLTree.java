@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+/**
+ *
+ * ArrayWAVLTree
+ *
+ * A WAVL Tree with the same API and rebalancing as WAVLTree, but with its
+ * nodes kept in parallel primitive arrays (struct of arrays) instead of
+ * WAVLNode objects, see AbstractArrayWAVLTree.
+ *
+ */
+
+public class ArrayWAVLTree extends AbstractArrayWAVLTree {
+
+	private int[] key;
+	private String[] value;
+
+
+	public ArrayWAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ArrayWAVLTree(int initialCapacity) {
+		super(initialCapacity);
+		key = new int[capacity()];
+		value = new String[capacity()];
+	}
+
+	@Override
+	protected void growItems(int capacity) {
+		key = Arrays.copyOf(key, capacity);
+		value = Arrays.copyOf(value, capacity);
+	}
+
+	@Override
+	protected void moveItem(int from, int to) {
+		key[to] = key[from];
+		value[to] = value[from];
+	}
+
+	@Override
+	protected void clearItem(int node) {
+		value[node] = null; //let the info be collected
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		int current = find(k);
+		return current == EXT ? null : value[current];
+	}
+
+	private int find(int k) {
+		int current = root;
+		while (current != EXT && key[current] != k)
+			current = key[current] > k ? left[current] : right[current];
+		return current;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		int p = EXT;
+		boolean asLeft = false;
+		for (int current = root; current != EXT; current = asLeft ? left[current] : right[current]) {
+			if (key[current] == k)
+				return -1;
+			p = current;
+			asLeft = key[current] > k;
+		}
+		int node = newNode(p);
+		key[node] = k;
+		value[node] = i;
+		return insertNode(node, p, asLeft);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		int current = find(k);
+		if (current == EXT)
+			return -1;
+		return deleteNode(current);
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		return empty() ? null : value[min];
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		return empty() ? null : value[max];
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = key[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = value[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key)
+	 *
+	 */
+	public String select(int i) {
+		int node = selectNode(i);
+		return node == EXT ? null : value[node];
+	}
+}
@@ -0,0 +1,70 @@
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ *
+ * Augmentation
+ *
+ * An aggregate a WAVLTree keeps in every node for its whole subtree, like
+ * subTreeSize, so that WAVLTree.aggregate answers range queries in O(log n).
+ * combine must be associative with identity as its neutral element; it is
+ * always applied in key order (left before right).
+ *
+ */
+
+public interface Augmentation<A> {
+
+	/**
+	 * the aggregate of no items
+	 */
+	A identity();
+
+	/**
+	 * the aggregate of the items of left followed by the items of right
+	 */
+	A combine(A left, A right);
+
+	/**
+	 * the aggregate of the single item (key, value)
+	 */
+	A lift(int key, String value);
+
+	/**
+	 * public static Augmentation<Long> sum(ToLongFunction<String> f)
+	 *
+	 * the sum of f over the values
+	 */
+	static Augmentation<Long> sum(ToLongFunction<String> f) {
+		return new Augmentation<Long>() {
+			public Long identity() { return 0L; }
+			public Long combine(Long left, Long right) { return left + right; }
+			public Long lift(int key, String value) { return f.applyAsLong(value); }
+		};
+	}
+
+	/**
+	 * public static Augmentation<Long> max(ToLongFunction<String> f)
+	 *
+	 * the maximum of f over the values, Long.MIN_VALUE if there are none
+	 */
+	static Augmentation<Long> max(ToLongFunction<String> f) {
+		return new Augmentation<Long>() {
+			public Long identity() { return Long.MIN_VALUE; }
+			public Long combine(Long left, Long right) { return Math.max(left, right); }
+			public Long lift(int key, String value) { return f.applyAsLong(value); }
+		};
+	}
+
+	/**
+	 * public static Augmentation<Integer> count(Predicate<String> condition)
+	 *
+	 * the number of values matching condition
+	 */
+	static Augmentation<Integer> count(Predicate<String> condition) {
+		return new Augmentation<Integer>() {
+			public Integer identity() { return 0; }
+			public Integer combine(Integer left, Integer right) { return left + right; }
+			public Integer lift(int key, String value) { return condition.test(value) ? 1 : 0; }
+		};
+	}
+}
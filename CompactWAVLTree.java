@@ -0,0 +1,448 @@
+/**
+ *
+ * CompactWAVLTree
+ *
+ * A WAVL Tree with the same API and rebalancing as WAVLTree, counted the same
+ * way, but with smaller nodes: instead of an int rank, a node keeps one bit per
+ * child telling whether its rank difference to that child is 1 or 2, packed
+ * into the low bits of its subtree size, and it has no parent pointer. insert
+ * and delete remember the path from the root instead, and promotions, demotions
+ * and rotations only flip rank difference bits.
+ *
+ * A node is the object header, key, value, two children and the packed field:
+ * 32 bytes with compressed oops, against 48 for a WAVLNode. Up to 2^30 - 1 items.
+ *
+ */
+
+public class CompactWAVLTree {
+
+	private static final int LEFT_TWO = 1; //the rank difference to the left child is 2, not 1
+	private static final int RIGHT_TWO = 2; //the rank difference to the right child is 2, not 1
+	private static final int DIFFS = LEFT_TWO | RIGHT_TWO;
+	private static final int SIZE_SHIFT = 2;
+	private static final int ONE = 1 << SIZE_SHIFT; //a subtree size of 1 in the packed field
+	private static final int MAX_SIZE = (1 << 30) - 1;
+	private static final int MAX_HEIGHT = 64; //a WAVL tree of n items is at most 2 log n high
+
+	private Node root;
+	private Node min;
+	private Node max;
+	private final Node[] path = new Node[MAX_HEIGHT]; //the ancestors of the node insert or delete works on
+
+
+	/**
+	 * private static final class Node
+	 *
+	 * a tree node, null stands for an external node (of rank -1)
+	 */
+	private static final class Node {
+		private int key;
+		private String value;
+		private Node left;
+		private Node right;
+		private int packed; //subtree size << SIZE_SHIFT | RIGHT_TWO | LEFT_TWO
+
+		private Node(int key, String value) {
+			this.key = key;
+			this.value = value;
+			packed = ONE; //a leaf, rank 0, rank differences 1 to both external children
+		}
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.packed >>> SIZE_SHIFT;
+	}
+
+	private static void resize(Node node) {
+		node.packed = (size(node.left) + size(node.right) + 1) << SIZE_SHIFT | (node.packed & DIFFS);
+	}
+
+	private static Node child(Node node, boolean left) {
+		return left ? node.left : node.right;
+	}
+
+	private static void setChild(Node node, boolean left, Node child) {
+		if (left)
+			node.left = child;
+		else
+			node.right = child;
+	}
+
+	private static boolean two(Node node, boolean left) {
+		return (node.packed & (left ? LEFT_TWO : RIGHT_TWO)) != 0;
+	}
+
+	private static void setTwo(Node node, boolean left, boolean two) {
+		int bit = left ? LEFT_TWO : RIGHT_TWO;
+		node.packed = two ? node.packed | bit : node.packed & ~bit;
+	}
+
+	/**
+	 * private static void setDiffs(Node node, boolean left, boolean sideTwo, boolean otherTwo)
+	 *
+	 * sets the rank differences of node to its child on the given side and to the other child
+	 */
+	private static void setDiffs(Node node, boolean left, boolean sideTwo, boolean otherTwo) {
+		boolean leftTwo = left ? sideTwo : otherTwo;
+		boolean rightTwo = left ? otherTwo : sideTwo;
+		node.packed = (node.packed & ~DIFFS) | (leftTwo ? LEFT_TWO : 0) | (rightTwo ? RIGHT_TWO : 0);
+	}
+
+	private static boolean isLeaf(Node node) {
+		return node.left == null && node.right == null;
+	}
+
+	/**
+	 * private void replace(int depth, Node old, Node top)
+	 *
+	 * hangs top where old was, old being path[depth]
+	 */
+	private void replace(int depth, Node old, Node top) {
+		if (depth == 0)
+			root = top;
+		else
+			setChild(path[depth - 1], path[depth - 1].left == old, top);
+	}
+
+	public boolean empty() {
+		return root == null;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		Node current = root;
+		while (current != null && current.key != k)
+			current = current.key > k ? current.left : current.right;
+		return current == null ? null : current.value;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, String i) {
+		if (root == null) {
+			root = new Node(k, i);
+			min = root;
+			max = root;
+			return 0;
+		}
+		int depth = 0;
+		Node p = root;
+		while (true) {
+			if (p.key == k)
+				return -1;
+			path[depth++] = p;
+			Node next = p.key > k ? p.left : p.right;
+			if (next == null)
+				break;
+			p = next;
+		}
+		if (size(root) == MAX_SIZE)
+			throw new IllegalStateException("the tree holds " + MAX_SIZE + " items already");
+		for (int d = 0; d < depth; d++)
+			path[d].packed += ONE;
+		Node x = new Node(k, i);
+		boolean left = p.key > k;
+		setChild(p, left, x);
+		if (k < min.key)
+			min = x;
+		if (k > max.key)
+			max = x;
+		if (two(p, left)) { //p was unary, of rank 1, so x is 1 below it
+			setTwo(p, left, false);
+			return 0;
+		}
+		return insertRebalance(depth - 1, left); //p was a leaf, of rank 0 like x
+	}
+
+	/**
+	 * private int insertRebalance(int depth, boolean left)
+	 *
+	 * fixes a rank difference of 0 between path[depth] and its child on the given side,
+	 * by promoting up the path and doing at most one single or double rotation.
+	 * returns the number of rebalancing operations done.
+	 */
+	private int insertRebalance(int depth, boolean left) {
+		int countBalance = 0;
+		while (true) {
+			Node p = path[depth];
+			if (!two(p, !left)) { //promote p, the other child becomes 2 below it
+				setDiffs(p, left, false, true);
+				countBalance++;
+				if (depth == 0)
+					return countBalance;
+				Node q = path[depth - 1];
+				boolean pLeft = q.left == p;
+				if (two(q, pLeft)) {
+					setTwo(q, pLeft, false);
+					return countBalance;
+				}
+				depth--;
+				left = pLeft;
+				continue;
+			}
+			Node x = child(p, left);
+			Node top;
+			if (two(x, !left)) { //x was promoted from its outer child: single rotation, p is demoted
+				setChild(p, left, child(x, !left));
+				setChild(x, !left, p);
+				setDiffs(p, left, false, false);
+				setDiffs(x, left, false, false);
+				resize(p);
+				resize(x);
+				top = x;
+				countBalance += 2;
+			}
+			else { //x was promoted from its inner child v: double rotation, v is promoted, x and p are demoted
+				Node v = child(x, !left);
+				boolean toX = two(v, left);
+				boolean toP = two(v, !left);
+				setChild(x, !left, child(v, left));
+				setChild(p, left, child(v, !left));
+				setChild(v, left, x);
+				setChild(v, !left, p);
+				setDiffs(x, left, false, toX);
+				setDiffs(p, left, toP, false);
+				setDiffs(v, left, false, false);
+				resize(x);
+				resize(p);
+				resize(v);
+				top = v;
+				countBalance += 5;
+			}
+			replace(depth, p, top);
+			return countBalance;
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there; a binary node takes
+	 * the item of its predecessor, which is deleted instead, as in WAVLTree.delete.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		int depth = 0;
+		Node x = root;
+		while (x != null && x.key != k) {
+			path[depth++] = x;
+			x = x.key > k ? x.left : x.right;
+		}
+		if (x == null)
+			return -1;
+		for (int d = 0; d < depth; d++)
+			path[d].packed -= ONE;
+		if (x.left != null && x.right != null) { //binary node: move the predecessor's item in
+			x.packed -= ONE;
+			path[depth++] = x;
+			Node pred = x.left;
+			while (pred.right != null) {
+				pred.packed -= ONE;
+				path[depth++] = pred;
+				pred = pred.right;
+			}
+			x.key = pred.key;
+			x.value = pred.value;
+			if (pred == min)
+				min = x;
+			x = pred;
+		}
+		Node c = x.left != null ? x.left : x.right; //x is a leaf or unary with a leaf child
+		if (depth == 0) {
+			root = c;
+			min = c;
+			max = c;
+			return 0;
+		}
+		Node p = path[depth - 1];
+		boolean left = p.left == x;
+		setChild(p, left, c);
+		if (x == min)
+			min = c != null ? c : p;
+		if (x == max)
+			max = c != null ? c : p;
+		int countBalance = 0;
+		if (isLeaf(p)) { //p was unary and became a 2,2 leaf: demote it
+			setDiffs(p, left, false, false);
+			countBalance = 1;
+			if (--depth == 0)
+				return countBalance;
+			left = path[depth - 1].left == p;
+		}
+		return countBalance + deleteRebalance(depth - 1, left);
+	}
+
+	/**
+	 * private int deleteRebalance(int depth, boolean left)
+	 *
+	 * fixes path[depth] after its child on the given side fell one rank lower,
+	 * with the demotions, double demotions and rotations of WAVLTree.rebalance.
+	 * returns the number of rebalancing operations done.
+	 */
+	private int deleteRebalance(int depth, boolean left) {
+		int countBalance = 0;
+		while (true) {
+			Node p = path[depth];
+			if (!two(p, left)) { //1 becomes 2
+				setTwo(p, left, true);
+				return countBalance;
+			}
+			//2 becomes 3
+			if (two(p, !left)) { //demote p
+				setDiffs(p, left, true, false);
+				countBalance += 1;
+			}
+			else {
+				Node y = child(p, !left);
+				if (two(y, true) && two(y, false)) { //double demote p and y
+					setDiffs(p, left, true, false);
+					setDiffs(y, left, false, false);
+					countBalance += 2;
+				}
+				else if (!two(y, !left)) { //single rotation, y is promoted and p demoted
+					boolean inner = two(y, left);
+					setChild(p, !left, child(y, left));
+					setChild(y, left, p);
+					boolean leaf = isLeaf(p); //then p is demoted twice, to rank 0
+					if (leaf)
+						setDiffs(p, left, false, false);
+					else
+						setDiffs(p, left, true, inner);
+					setDiffs(y, left, leaf, true);
+					resize(p);
+					resize(y);
+					replace(depth, p, y);
+					return countBalance + 3;
+				}
+				else { //double rotation, y's inner child v is promoted twice, y demoted and p demoted twice
+					Node v = child(y, left);
+					boolean toP = two(v, left);
+					boolean toY = two(v, !left);
+					setChild(p, !left, child(v, left));
+					setChild(y, left, child(v, !left));
+					setChild(v, left, p);
+					setChild(v, !left, y);
+					setDiffs(p, left, false, toP);
+					setDiffs(y, left, toY, false);
+					setDiffs(v, left, true, true);
+					resize(p);
+					resize(y);
+					resize(v);
+					replace(depth, p, v);
+					return countBalance + 5;
+				}
+			}
+			if (depth == 0) //p was demoted, so its parent's difference grows
+				return countBalance;
+			left = path[depth - 1].left == p;
+			depth--;
+		}
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		return root == null ? null : min.value;
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		return root == null ? null : max.value;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int j = 0;
+		Node[] stack = new Node[MAX_HEIGHT];
+		int depth = 0;
+		Node x = root;
+		while (x != null || depth > 0) {
+			while (x != null) {
+				stack[depth++] = x;
+				x = x.left;
+			}
+			x = stack[--depth];
+			arr[j++] = x.key;
+			x = x.right;
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int j = 0;
+		Node[] stack = new Node[MAX_HEIGHT];
+		int depth = 0;
+		Node x = root;
+		while (x != null || depth > 0) {
+			while (x != null) {
+				stack[depth++] = x;
+				x = x.left;
+			}
+			x = stack[--depth];
+			arr[j++] = x.value;
+			x = x.right;
+		}
+		return arr;
+	}
+
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key)
+	 *
+	 */
+	public String select(int i) {
+		if (i < 1 || i > size())
+			return null;
+		Node current = root;
+		while (true) {
+			int s = size(current.left);
+			if (i == s + 1)
+				return current.value;
+			if (i <= s)
+				current = current.left;
+			else {
+				i -= s + 1;
+				current = current.right;
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ *
+ * ConcurrentWAVLTree
+ *
+ * A thread safe WAVLTree for read heavy workloads. Writers (insert, delete)
+ * are serialized on a StampedLock. search, select, min, max, size and empty
+ * first run without any lock under an optimistic stamp and retry if a writer
+ * got in the way, falling back to the read lock only after a few failed tries.
+ * The full scans keysToArray and infoToArray always take the read lock.
+ *
+ * A read that races with a rotation may see a torn tree, so the optimistic
+ * traversals are bounded by the maximal WAVL height and swallow the runtime
+ * exceptions a torn tree may cause; their result is only used if the stamp
+ * is still valid. Under the read lock search walks the tree itself too, as
+ * WAVLTree.search moves the finger when finger search is on, and readers
+ * holding the shared lock must not write.
+ *
+ */
+
+public class ConcurrentWAVLTree {
+
+	private static final int OPTIMISTIC_TRIES = 3;
+	private static final int MAX_HEIGHT = 2 * 32; //a WAVL tree of n nodes has height at most 2 log n
+
+	private final WAVLTree tree;
+	private final StampedLock lock = new StampedLock();
+
+
+	public ConcurrentWAVLTree() {
+		this(new WAVLTree());
+	}
+
+	/**
+	 * public ConcurrentWAVLTree(WAVLTree tree)
+	 *
+	 * wraps an existing tree, e.g. one built by WAVLTree.fromSorted.
+	 * the tree must not be used directly afterwards.
+	 */
+	public ConcurrentWAVLTree(WAVLTree tree) {
+		this.tree = tree;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * as WAVLTree.insert, under the write lock
+	 */
+	public int insert(int k, String i) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.insert(k, i);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * as WAVLTree.delete, under the write lock
+	 */
+	public int delete(int k) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.delete(k);
+		}
+		finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		for (int i = 0; i < OPTIMISTIC_TRIES; i++) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp == 0)
+				break; //a writer holds the lock
+			try {
+				String value = search(k, MAX_HEIGHT);
+				if (lock.validate(stamp))
+					return value;
+			}
+			catch (RuntimeException e) {
+				//torn read or too deep, try again
+			}
+		}
+		long stamp = lock.readLock();
+		try {
+			return search(k, Integer.MAX_VALUE); //a relaxed balance tree may be higher
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key)
+	 */
+	public String select(int i) {
+		for (int t = 0; t < OPTIMISTIC_TRIES; t++) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp == 0)
+				break;
+			try {
+				String value = select(i, MAX_HEIGHT);
+				if (lock.validate(stamp))
+					return value;
+			}
+			catch (RuntimeException e) {
+				//torn read or too deep, try again
+			}
+		}
+		long stamp = lock.readLock();
+		try {
+			return select(i, Integer.MAX_VALUE);
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public String min() {
+		for (int t = 0; t < OPTIMISTIC_TRIES; t++) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp == 0)
+				break;
+			try {
+				String value = tree.min();
+				if (lock.validate(stamp))
+					return value;
+			}
+			catch (RuntimeException e) {
+				//torn read or too deep, try again
+			}
+		}
+		long stamp = lock.readLock();
+		try {
+			return tree.min();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public String max() {
+		for (int t = 0; t < OPTIMISTIC_TRIES; t++) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp == 0)
+				break;
+			try {
+				String value = tree.max();
+				if (lock.validate(stamp))
+					return value;
+			}
+			catch (RuntimeException e) {
+				//torn read or too deep, try again
+			}
+		}
+		long stamp = lock.readLock();
+		try {
+			return tree.max();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int size = tree.size();
+		if (lock.validate(stamp))
+			return size;
+		stamp = lock.readLock();
+		try {
+			return tree.size();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	public int[] keysToArray() {
+		long stamp = lock.readLock();
+		try {
+			return tree.keysToArray();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public String[] infoToArray() {
+		long stamp = lock.readLock();
+		try {
+			return tree.infoToArray();
+		}
+		finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * private String search(int k, int maxDepth)
+	 *
+	 * searches from the root without moving the finger. throws below maxDepth, where
+	 * the tree is torn or relaxed balance made it higher, so the read is tried again
+	 * and at last done under the read lock.
+	 */
+	private String search(int k, int maxDepth) {
+		WAVLTree.WAVLNode current = tree.getRoot();
+		for (int depth = 0; current != null && current.isInnerNode(); depth++) {
+			if (depth > maxDepth)
+				throw new IllegalStateException("deeper than " + maxDepth);
+			if (current.getKey() == k)
+				return current.getValue();
+			current = current.getKey() > k ? current.getLeft() : current.getRight();
+		}
+		return null;
+	}
+
+	private String select(int i, int maxDepth) {
+		WAVLTree.WAVLNode current = tree.getRoot();
+		if (current == null || i < 1 || i > current.getSubtreeSize())
+			return null;
+		for (int depth = 0; current.isInnerNode(); depth++) {
+			if (depth > maxDepth)
+				throw new IllegalStateException("deeper than " + maxDepth);
+			int s = current.getLeft().getSubtreeSize();
+			if (s + 1 == i)
+				return current.getValue();
+			if (i <= s)
+				current = current.getLeft();
+			else {
+				current = current.getRight();
+				i -= s + 1;
+			}
+		}
+		return null;
+	}
+}
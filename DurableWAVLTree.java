@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ *
+ * DurableWAVLTree
+ *
+ * A thread safe WAVLTree whose inserts and deletes survive a crash. Every change
+ * is appended to a write ahead log in a directory, and insert/delete return only
+ * once their record is on disk. Callers that write concurrently share the disk
+ * write and the fsync (group commit): the first waiting caller becomes the leader,
+ * waits until maxBatch records are pending or maxDelay has passed, writes them all
+ * and forces the log once for everybody.
+ *
+ * open loads the last snapshot (written by checkpoint in the WAVLTreeSnapshot
+ * format) and replays the log on top of it; a torn record at the end of the log,
+ * from a crash in the middle of a write, is cut off.
+ *
+ * log record: payload length (int), payload: op (byte), key (int), UTF-8 value
+ * for inserts, then the CRC32C of the payload (int). Only changes are logged, so
+ * the records of a key alternate between insert and delete, and replaying a log
+ * over a snapshot that already holds some of its records ends in the same state.
+ *
+ * Readers and writers share one lock; a change is visible to readers as soon as
+ * it is applied, before it is durable. Once a log write fails the tree may hold
+ * changes the log lacks, so from then on every call fails, reads with an
+ * UncheckedIOException; reopening the directory gives the durable state.
+ *
+ */
+
+public class DurableWAVLTree implements AutoCloseable {
+
+	private static final String SNAPSHOT = "snapshot";
+	private static final String LOG = "wal";
+	private static final byte INSERT = 1;
+	private static final byte INSERT_NULL = 2; //insert with a null value
+	private static final byte DELETE = 3;
+	private static final int MAX_RECORD = 1 << 30;
+
+	private final Path dir;
+	private final int maxBatch;
+	private final long maxDelayNanos;
+	private final FileChannel log;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition batchFull = lock.newCondition();
+	private final Condition durable = lock.newCondition();
+	private final CRC32C crc = new CRC32C();
+	private final WAVLTree tree;
+	private ByteBuffer pending = ByteBuffer.allocate(1 << 16); //records appended but not yet written
+	private ByteBuffer writing = ByteBuffer.allocate(1 << 16); //the leader's batch, while it writes
+	private long appended; //records appended so far
+	private long durableRecords; //records known to be on disk
+	private boolean flushing; //whether a leader is collecting or writing a batch
+	private IOException failure; //the error of a failed log write, after which all writes fail
+	private long syncs;
+
+
+	private DurableWAVLTree(Path dir, int maxBatch, long maxDelayNanos) throws IOException {
+		if (maxBatch < 1 || maxDelayNanos < 0)
+			throw new IllegalArgumentException("maxBatch must be positive and maxDelay not negative");
+		this.dir = dir;
+		this.maxBatch = maxBatch;
+		this.maxDelayNanos = maxDelayNanos;
+		Files.createDirectories(dir);
+		Path snapshot = dir.resolve(SNAPSHOT);
+		if (Files.exists(snapshot)) {
+			try (FileChannel in = FileChannel.open(snapshot)) {
+				tree = WAVLTree.readFrom(in);
+			}
+		}
+		else
+			tree = new WAVLTree();
+		boolean created = Files.notExists(dir.resolve(LOG));
+		log = FileChannel.open(dir.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (created)
+			forceDirectory(dir);
+		replay();
+	}
+
+	/**
+	 * public static DurableWAVLTree open(Path dir, int maxBatch, long maxDelay, TimeUnit unit)
+	 *
+	 * opens (or creates) the durable tree kept in dir. a group commit writes as soon as
+	 * maxBatch records are pending, or after maxDelay otherwise; maxBatch 1 syncs every
+	 * write on its own.
+	 */
+	public static DurableWAVLTree open(Path dir, int maxBatch, long maxDelay, TimeUnit unit) throws IOException {
+		return new DurableWAVLTree(dir, maxBatch, unit.toNanos(maxDelay));
+	}
+
+	/**
+	 * private void replay()
+	 *
+	 * applies the records of the log to the tree, and truncates the log after the
+	 * last complete record whose checksum matches.
+	 */
+	private void replay() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		ByteBuffer record = ByteBuffer.allocate(1 << 12);
+		long position = 0;
+		long end = log.size();
+		while (true) {
+			header.clear();
+			if (!readFully(position, header))
+				break;
+			int length = header.getInt(0);
+			if (length < 5 || length > MAX_RECORD || position + 4 + length + 4 > end)
+				break;
+			if (record.capacity() < length + 4)
+				record = ByteBuffer.allocate(length + 4);
+			record.clear().limit(length + 4);
+			if (!readFully(position + 4, record))
+				break;
+			crc.reset();
+			crc.update(record.array(), 0, length);
+			if ((int) crc.getValue() != record.getInt(length))
+				break;
+			byte op = record.get(0);
+			int key = record.getInt(1);
+			if (op == DELETE)
+				tree.delete(key);
+			else if (op == INSERT)
+				tree.insert(key, new String(record.array(), 5, length - 5, StandardCharsets.UTF_8));
+			else if (op == INSERT_NULL)
+				tree.insert(key, null);
+			else
+				break;
+			position += 4 + length + 4;
+		}
+		if (position < end) { //torn or corrupt tail
+			log.truncate(position);
+			log.force(true);
+		}
+		log.position(position);
+	}
+
+	/**
+	 * private static void forceDirectory(Path dir)
+	 *
+	 * writes the entries of dir (a created or renamed file) to disk. Windows can't open
+	 * a directory, and its file systems journal renames themselves.
+	 */
+	private static void forceDirectory(Path dir) throws IOException {
+		if (System.getProperty("os.name").startsWith("Windows"))
+			return;
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	private boolean readFully(long position, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = log.read(buffer, position);
+			if (n < 0)
+				return false;
+			position += n;
+		}
+		return true;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * as WAVLTree.insert, returning once the insert is on disk. throws IOException if
+	 * the log write fails, after which the tree fails every call.
+	 */
+	public int insert(int k, String i) throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			int result = tree.insert(k, i);
+			if (result == -1)
+				return -1;
+			byte[] bytes = i == null ? null : i.getBytes(StandardCharsets.UTF_8);
+			awaitDurable(append(i == null ? INSERT_NULL : INSERT, k, bytes));
+			return result;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * as WAVLTree.delete, returning once the delete is on disk. throws IOException if
+	 * the log write fails, after which the tree fails every call.
+	 */
+	public int delete(int k) throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			int result = tree.delete(k);
+			if (result == -1)
+				return -1;
+			awaitDurable(append(DELETE, k, null));
+			return result;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (failure != null)
+			throw new IOException("write ahead log failed", failure);
+		if (!log.isOpen())
+			throw new IOException("tree is closed");
+	}
+
+	private void checkReadable() {
+		if (failure != null)
+			throw new UncheckedIOException(new IOException("write ahead log failed", failure));
+	}
+
+	/**
+	 * private long append(byte op, int k, byte[] value)
+	 *
+	 * adds a record to the pending batch, returns its sequence number. called with the lock held.
+	 */
+	private long append(byte op, int k, byte[] value) {
+		int length = 5 + (value == null ? 0 : value.length);
+		if (pending.remaining() < length + 8) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + length + 8));
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+		pending.putInt(length);
+		int start = pending.position();
+		pending.put(op).putInt(k);
+		if (value != null)
+			pending.put(value);
+		crc.reset();
+		crc.update(pending.array(), start, length);
+		pending.putInt((int) crc.getValue());
+		appended++;
+		if (appended - durableRecords >= maxBatch)
+			batchFull.signal();
+		return appended;
+	}
+
+	/**
+	 * private void awaitDurable(long record)
+	 *
+	 * returns once the given record is on disk. called with the lock held; either waits
+	 * for the running leader or becomes the leader, collects a batch, and writes and
+	 * forces it without the lock, so other callers can append to the next batch meanwhile.
+	 */
+	private void awaitDurable(long record) throws IOException {
+		while (durableRecords < record) {
+			if (failure != null)
+				throw new IOException("write ahead log failed", failure);
+			if (flushing) {
+				durable.awaitUninterruptibly();
+				continue;
+			}
+			flushing = true;
+			try {
+				long remaining = maxDelayNanos;
+				while (appended - durableRecords < maxBatch && remaining > 0)
+					remaining = batchFull.awaitNanos(remaining);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt(); //stop collecting, write what there is
+			}
+			ByteBuffer batch = pending;
+			pending = writing;
+			writing = batch;
+			long upTo = appended;
+			lock.unlock();
+			try {
+				batch.flip();
+				while (batch.hasRemaining())
+					log.write(batch);
+				log.force(false);
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+			finally {
+				lock.lock();
+				batch.clear();
+				flushing = false;
+				durable.signalAll();
+			}
+			if (failure != null)
+				throw new IOException("write ahead log failed", failure);
+			durableRecords = upTo;
+			syncs++;
+		}
+	}
+
+	/**
+	 * public void checkpoint()
+	 *
+	 * writes a snapshot of the tree, replacing the previous one atomically, and empties
+	 * the log once the rename is on disk. writers wait while the snapshot is written.
+	 */
+	public void checkpoint() throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			awaitDurable(appended);
+			Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				tree.writeTo(out);
+				out.force(true);
+			}
+			Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			forceDirectory(dir); //the log may only be emptied once the new snapshot is sure to be found
+			log.truncate(0);
+			log.force(true);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * public long syncs()
+	 *
+	 * Returns the number of log forces so far (one per group commit)
+	 */
+	public long syncs() {
+		lock.lock();
+		try {
+			return syncs;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public String search(int k) {
+		lock.lock();
+		try {
+			checkReadable();
+			return tree.search(k);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public String select(int i) {
+		lock.lock();
+		try {
+			checkReadable();
+			return tree.select(i);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			checkReadable();
+			return tree.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	public int[] keysToArray() {
+		lock.lock();
+		try {
+			checkReadable();
+			return tree.keysToArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public String[] infoToArray() {
+		lock.lock();
+		try {
+			checkReadable();
+			return tree.infoToArray();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * waits for the pending records to be on disk and closes the log
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (!log.isOpen())
+				return;
+			if (failure == null)
+				awaitDurable(appended);
+			log.close();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ *
+ * FrozenWAVLTree
+ *
+ * An immutable, read optimized copy of a WAVLTree, made by WAVLTree.freeze().
+ * The keys are kept twice in contiguous int arrays: in sorted order, next to
+ * the values, for select, range scans and the arrays, and in Eytzinger (BFS)
+ * order for search and rank. A search walks the implicit tree 1, 2k, 2k + 1
+ * without branching on the comparisons, and the first levels share cache lines,
+ * so a lookup costs about log n dependent loads instead of log n pointer chases
+ * through nodes scattered over the heap.
+ *
+ * A frozen tree is safe to share between threads.
+ *
+ */
+
+public class FrozenWAVLTree {
+
+	private final int[] keys; //sorted
+	private final String[] values; //by key
+	private final int[] eytzinger; //eytzinger[1..n], the keys in BFS order of the implicit tree
+	private final int[] position; //position[j] is the index in keys of eytzinger[j]
+
+
+	/**
+	 * FrozenWAVLTree(int[] keys, String[] values)
+	 *
+	 * keys must be strictly increasing. the arrays are owned by the frozen tree.
+	 */
+	FrozenWAVLTree(int[] keys, String[] values) {
+		this.keys = keys;
+		this.values = values;
+		eytzinger = new int[keys.length + 1];
+		position = new int[keys.length + 1];
+		layout(0, 1);
+	}
+
+	/**
+	 * private int layout(int i, int j)
+	 *
+	 * fills the subtree of slot j in order with keys[i..], returns the next i
+	 */
+	private int layout(int i, int j) {
+		if (j > keys.length)
+			return i;
+		i = layout(i, 2 * j);
+		eytzinger[j] = keys[i];
+		position[j] = i;
+		return layout(i + 1, 2 * j + 1);
+	}
+
+	/**
+	 * private int lowerBound(int k)
+	 *
+	 * returns the index in keys of the smallest key >= k, or size() if there is none
+	 */
+	private int lowerBound(int k) {
+		int n = keys.length;
+		int j = 1;
+		while (j <= n)
+			j = 2 * j + (eytzinger[j] < k ? 1 : 0);
+		j >>>= Integer.numberOfTrailingZeros(~j) + 1; //undo the right turns after the last left turn
+		return j == 0 ? n : position[j];
+	}
+
+	private int upperBound(int k) {
+		return k == Integer.MAX_VALUE ? keys.length : lowerBound(k + 1);
+	}
+
+	public boolean empty() {
+		return keys.length == 0;
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		int i = lowerBound(k);
+		return i < keys.length && keys[i] == k ? values[i] : null;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key), in O(1)
+	 */
+	public String select(int i) {
+		return i < 1 || i > keys.length ? null : values[i - 1];
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys smaller than or equal to k, as WAVLTree.rank
+	 */
+	public int rank(int k) {
+		return upperBound(k);
+	}
+
+	/**
+	 * public int countRange(int lo, int hi)
+	 *
+	 * Returns the number of keys in [lo, hi]
+	 */
+	public int countRange(int lo, int hi) {
+		return lo > hi ? 0 : upperBound(hi) - lowerBound(lo);
+	}
+
+	public String min() {
+		return empty() ? null : values[0];
+	}
+
+	public String max() {
+		return empty() ? null : values[keys.length - 1];
+	}
+
+	public int[] keysToArray() {
+		return keys.clone();
+	}
+
+	public String[] infoToArray() {
+		return values.clone();
+	}
+
+	/**
+	 * public Cursor cursor(int lo, int hi)
+	 *
+	 * Returns a cursor over the items with keys in [lo, hi], in increasing key order,
+	 * as WAVLTree.cursor. after finding lo it only walks the sorted arrays.
+	 */
+	public Cursor cursor(int lo, int hi) {
+		Cursor cursor = new Cursor();
+		cursor.reset(lo, hi);
+		return cursor;
+	}
+
+	/**
+	 * public class Cursor
+	 *
+	 * a position in a range of the frozen tree.
+	 * usage: for (Cursor c = frozen.cursor(lo, hi); c.next();) use(c.getKey(), c.getValue());
+	 */
+	public class Cursor {
+		private int current; //index in keys
+		private int end; //index in keys after the range
+
+		private Cursor() {
+		}
+
+		public void reset(int lo, int hi) {
+			current = lowerBound(lo) - 1;
+			end = lo > hi ? current + 1 : upperBound(hi);
+		}
+
+		public boolean next() {
+			if (current + 1 >= end)
+				return false;
+			current++;
+			return true;
+		}
+
+		public int getKey() {
+			return keys[current];
+		}
+
+		public String getValue() {
+			return values[current];
+		}
+	}
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ *
+ * GenericWAVLTree
+ *
+ * A WAVL Tree over any key type, ordered by a Comparator (or by the keys'
+ * natural order), with values of any type. It runs on the array engine of
+ * AbstractArrayWAVLTree like the primitive trees, so only the comparisons go
+ * through the Comparator. Ranks, rotations and rebalance counts follow WAVLTree.
+ *
+ */
+
+public class GenericWAVLTree<K, V> extends AbstractArrayWAVLTree {
+
+	private final Comparator<? super K> comparator; //null for the natural order
+	private Object[] key;
+	private Object[] value;
+
+
+	/**
+	 * public GenericWAVLTree()
+	 *
+	 * creates an empty tree ordered by the keys' natural order (K must be Comparable)
+	 */
+	public GenericWAVLTree() {
+		this(null);
+	}
+
+	public GenericWAVLTree(Comparator<? super K> comparator) {
+		this(comparator, DEFAULT_CAPACITY);
+	}
+
+	public GenericWAVLTree(Comparator<? super K> comparator, int initialCapacity) {
+		super(initialCapacity);
+		this.comparator = comparator;
+		key = new Object[capacity()];
+		value = new Object[capacity()];
+	}
+
+	@Override
+	protected void growItems(int capacity) {
+		key = Arrays.copyOf(key, capacity);
+		value = Arrays.copyOf(value, capacity);
+	}
+
+	@Override
+	protected void moveItem(int from, int to) {
+		key[to] = key[from];
+		value[to] = value[from];
+	}
+
+	@Override
+	protected void clearItem(int node) {
+		key[node] = null; //let the item be collected
+		value[node] = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(K k, int node) {
+		K other = (K) key[node];
+		if (comparator != null)
+			return comparator.compare(k, other);
+		return ((Comparable<? super K>) k).compareTo(other);
+	}
+
+	private int find(K k) {
+		int current = root;
+		while (current != EXT) {
+			int c = compare(k, current);
+			if (c == 0)
+				return current;
+			current = c < 0 ? left[current] : right[current];
+		}
+		return EXT;
+	}
+
+	/**
+	 * public V search(K k)
+	 *
+	 * returns the value of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(K k) {
+		int current = find(k);
+		return current == EXT ? null : (V) value[current];
+	}
+
+	/**
+	 * public int insert(K k, V v)
+	 *
+	 * inserts an item with key k and value v to the WAVL tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(K k, V v) {
+		int p = EXT;
+		boolean asLeft = false;
+		for (int current = root; current != EXT; current = asLeft ? left[current] : right[current]) {
+			int c = compare(k, current);
+			if (c == 0)
+				return -1;
+			p = current;
+			asLeft = c < 0;
+		}
+		if (p == EXT)
+			compareKeys(k, k); //type (and null) check of the first key, as TreeMap does
+		int node = newNode(p);
+		key[node] = k;
+		value[node] = v;
+		return insertNode(node, p, asLeft);
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compareKeys(K k, K other) {
+		if (comparator != null)
+			return comparator.compare(k, other);
+		return ((Comparable<? super K>) k).compareTo(other);
+	}
+
+	/**
+	 * public int delete(K k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(K k) {
+		int current = find(k);
+		if (current == EXT)
+			return -1;
+		return deleteNode(current);
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the value of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public V min() {
+		return empty() ? null : (V) value[min];
+	}
+
+	@SuppressWarnings("unchecked")
+	public V max() {
+		return empty() ? null : (V) value[max];
+	}
+
+	@SuppressWarnings("unchecked")
+	public K minKey() {
+		return empty() ? null : (K) key[min];
+	}
+
+	@SuppressWarnings("unchecked")
+	public K maxKey() {
+		return empty() ? null : (K) key[max];
+	}
+
+	/**
+	 * public V select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key)
+	 */
+	@SuppressWarnings("unchecked")
+	public V select(int i) {
+		int node = selectNode(i);
+		return node == EXT ? null : (V) value[node];
+	}
+
+	/**
+	 * public Object[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public Object[] keysToArray() {
+		Object[] arr = new Object[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = key[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public Object[] infoToArray()
+	 *
+	 * Returns an array which contains all values in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public Object[] infoToArray() {
+		Object[] arr = new Object[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = value[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * IntLongWAVLTree
+ *
+ * A WAVL Tree mapping primitive int keys to primitive long values, on the
+ * array engine of AbstractArrayWAVLTree: nothing is boxed, and each item costs
+ * its key and value plus five ints of structure. Ranks, rotations and rebalance
+ * counts follow WAVLTree.
+ *
+ */
+
+public class IntLongWAVLTree extends AbstractArrayWAVLTree {
+
+	private int[] key;
+	private long[] value;
+
+
+	public IntLongWAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntLongWAVLTree(int initialCapacity) {
+		super(initialCapacity);
+		key = new int[capacity()];
+		value = new long[capacity()];
+	}
+
+	@Override
+	protected void growItems(int capacity) {
+		key = Arrays.copyOf(key, capacity);
+		value = Arrays.copyOf(value, capacity);
+	}
+
+	@Override
+	protected void moveItem(int from, int to) {
+		key[to] = key[from];
+		value[to] = value[from];
+	}
+
+	@Override
+	protected void clearItem(int node) {
+		//primitives only, nothing to release
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k is in the tree
+	 */
+	public boolean containsKey(int k) {
+		return find(k) != EXT;
+	}
+
+	/**
+	 * public long search(int k, long notFound)
+	 *
+	 * returns the value of the item with key k if it exists in the tree
+	 * otherwise, returns notFound
+	 */
+	public long search(int k, long notFound) {
+		int current = find(k);
+		return current == EXT ? notFound : value[current];
+	}
+
+	private int find(int k) {
+		int current = root;
+		while (current != EXT && key[current] != k)
+			current = key[current] > k ? left[current] : right[current];
+		return current;
+	}
+
+	/**
+	 * public int insert(int k, long v)
+	 *
+	 * inserts an item with key k and value v to the WAVL tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(int k, long v) {
+		int p = EXT;
+		boolean asLeft = false;
+		for (int current = root; current != EXT; current = asLeft ? left[current] : right[current]) {
+			if (key[current] == k)
+				return -1;
+			p = current;
+			asLeft = key[current] > k;
+		}
+		int node = newNode(p);
+		key[node] = k;
+		value[node] = v;
+		return insertNode(node, p, asLeft);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		int current = find(k);
+		if (current == EXT)
+			return -1;
+		return deleteNode(current);
+	}
+
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree,
+	 * throws NoSuchElementException if the tree is empty
+	 */
+	public int minKey() {
+		return key[nonEmpty(min)];
+	}
+
+	public int maxKey() {
+		return key[nonEmpty(max)];
+	}
+
+	/**
+	 * public long min()
+	 *
+	 * Returns the value of the item with the smallest key in the tree,
+	 * throws NoSuchElementException if the tree is empty
+	 */
+	public long min() {
+		return value[nonEmpty(min)];
+	}
+
+	public long max() {
+		return value[nonEmpty(max)];
+	}
+
+	/**
+	 * public long select(int i)
+	 *
+	 * Returns the value of the i'th smallest key,
+	 * throws NoSuchElementException if there is no such key
+	 */
+	public long select(int i) {
+		return value[nonEmpty(selectNode(i))];
+	}
+
+	public int selectKey(int i) {
+		return key[nonEmpty(selectNode(i))];
+	}
+
+	private static int nonEmpty(int node) {
+		if (node == EXT)
+			throw new NoSuchElementException();
+		return node;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = key[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public long[] infoToArray()
+	 *
+	 * Returns an array which contains all values in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public long[] infoToArray() {
+		long[] arr = new long[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = value[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+}
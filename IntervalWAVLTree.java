@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * IntervalWAVLTree
+ *
+ * An interval tree over closed intervals [start, end] of long bounds, each with a
+ * payload: a WAVL Tree on the array engine of AbstractArrayWAVLTree, keyed on start
+ * (then end, so an interval is held at most once), in which every node also keeps
+ * the largest end in its subtree (maxEnd). The engine keeps maxEnd up to date
+ * through the augment hook, wherever it fixes subtree sizes: on the insert and
+ * delete paths and in every rotation of the promotions and delete rebalancing.
+ *
+ * Stabbing and overlap queries walk the tree in start order, skipping every
+ * subtree whose maxEnd is below the query and everything right of the query's end,
+ * so they visit O(log n) nodes per reported interval at most, and far fewer when
+ * the results are near each other. Each query either collects a list or streams
+ * the intervals to a callback, which allocates nothing.
+ *
+ */
+
+public class IntervalWAVLTree<V> extends AbstractArrayWAVLTree {
+
+	private long[] start;
+	private long[] end;
+	private long[] maxEnd; //largest end in the subtree, Long.MIN_VALUE for EXT
+	private Object[] payload;
+
+
+	/**
+	 * public interface IntervalConsumer<V>
+	 *
+	 * receives the intervals a query finds, in start order
+	 */
+	public interface IntervalConsumer<V> {
+		void accept(long start, long end, V payload);
+	}
+
+	/**
+	 * public static final class Interval<V>
+	 *
+	 * an interval found by a collecting query
+	 */
+	public static final class Interval<V> {
+		private final long start;
+		private final long end;
+		private final V payload;
+
+		private Interval(long start, long end, V payload) {
+			this.start = start;
+			this.end = end;
+			this.payload = payload;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public V getPayload() {
+			return payload;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + start + ", " + end + "]=" + payload;
+		}
+	}
+
+	public IntervalWAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntervalWAVLTree(int initialCapacity) {
+		super(initialCapacity);
+		start = new long[capacity()];
+		end = new long[capacity()];
+		maxEnd = new long[capacity()];
+		payload = new Object[capacity()];
+		maxEnd[EXT] = Long.MIN_VALUE;
+	}
+
+	@Override
+	protected void growItems(int capacity) {
+		start = Arrays.copyOf(start, capacity);
+		end = Arrays.copyOf(end, capacity);
+		maxEnd = Arrays.copyOf(maxEnd, capacity);
+		payload = Arrays.copyOf(payload, capacity);
+	}
+
+	@Override
+	protected void moveItem(int from, int to) {
+		start[to] = start[from];
+		end[to] = end[from];
+		payload[to] = payload[from];
+	}
+
+	@Override
+	protected void clearItem(int node) {
+		payload[node] = null; //let the payload be collected
+	}
+
+	@Override
+	protected void augment(int node) {
+		maxEnd[node] = Math.max(end[node], Math.max(maxEnd[left[node]], maxEnd[right[node]]));
+	}
+
+	private int compare(long s, long e, int node) {
+		int c = Long.compare(s, start[node]);
+		return c != 0 ? c : Long.compare(e, end[node]);
+	}
+
+	private int find(long s, long e) {
+		int current = root;
+		while (current != EXT) {
+			int c = compare(s, e, current);
+			if (c == 0)
+				return current;
+			current = c < 0 ? left[current] : right[current];
+		}
+		return EXT;
+	}
+
+	/**
+	 * public V search(long start, long end)
+	 *
+	 * returns the payload of the interval [start, end] if it is in the tree
+	 * otherwise, returns null
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(long start, long end) {
+		int current = find(start, end);
+		return current == EXT ? null : (V) payload[current];
+	}
+
+	/**
+	 * public int insert(long start, long end, V payload)
+	 *
+	 * inserts the interval [start, end] with payload to the tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if the interval [start, end] is already in the tree.
+	 */
+	public int insert(long start, long end, V payload) {
+		if (start > end)
+			throw new IllegalArgumentException("start " + start + " is after end " + end);
+		int p = EXT;
+		boolean asLeft = false;
+		for (int current = root; current != EXT; current = asLeft ? left[current] : right[current]) {
+			int c = compare(start, end, current);
+			if (c == 0)
+				return -1;
+			p = current;
+			asLeft = c < 0;
+		}
+		int node = newNode(p);
+		this.start[node] = start;
+		this.end[node] = end;
+		this.payload[node] = payload;
+		return insertNode(node, p, asLeft);
+	}
+
+	/**
+	 * public int delete(long start, long end)
+	 *
+	 * deletes the interval [start, end] from the tree, if it is there.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if the interval was not found in the tree.
+	 */
+	public int delete(long start, long end) {
+		int current = find(start, end);
+		if (current == EXT)
+			return -1;
+		return deleteNode(current);
+	}
+
+	/**
+	 * public int stab(long t, IntervalConsumer<? super V> action)
+	 *
+	 * passes every interval holding t (start <= t <= end) to action, in start order.
+	 * returns the number of intervals found.
+	 */
+	public int stab(long t, IntervalConsumer<? super V> action) {
+		return overlap(t, t, action);
+	}
+
+	/**
+	 * public List<Interval<V>> stab(long t)
+	 *
+	 * Returns the intervals holding t, in start order
+	 */
+	public List<Interval<V>> stab(long t) {
+		return overlap(t, t);
+	}
+
+	/**
+	 * public int overlap(long from, long to, IntervalConsumer<? super V> action)
+	 *
+	 * passes every interval overlapping [from, to] (start <= to and end >= from)
+	 * to action, in start order. returns the number of intervals found.
+	 */
+	public int overlap(long from, long to, IntervalConsumer<? super V> action) {
+		if (from > to)
+			throw new IllegalArgumentException("from " + from + " is after to " + to);
+		return overlap(root, from, to, action);
+	}
+
+	/**
+	 * public List<Interval<V>> overlap(long from, long to)
+	 *
+	 * Returns the intervals overlapping [from, to], in start order
+	 */
+	public List<Interval<V>> overlap(long from, long to) {
+		List<Interval<V>> found = new ArrayList<>();
+		overlap(from, to, (s, e, v) -> found.add(new Interval<>(s, e, v)));
+		return found;
+	}
+
+	/**
+	 * public boolean overlapsAny(long from, long to)
+	 *
+	 * returns true if and only if some interval overlaps [from, to], in O(log n):
+	 * goes left whenever the left subtree's maxEnd reaches from, as that subtree
+	 * then holds an overlap if any interval does.
+	 */
+	public boolean overlapsAny(long from, long to) {
+		int current = root;
+		while (current != EXT) {
+			if (start[current] <= to && end[current] >= from)
+				return true;
+			if (maxEnd[left[current]] >= from)
+				current = left[current];
+			else
+				current = right[current];
+		}
+		return false;
+	}
+
+	/**
+	 * private int overlap(int node, long from, long to, IntervalConsumer<? super V> action)
+	 *
+	 * the in order walk of the overlap queries. a subtree whose maxEnd is below from
+	 * ends before the query, and once start is past to so is everything to the right.
+	 */
+	@SuppressWarnings("unchecked")
+	private int overlap(int node, long from, long to, IntervalConsumer<? super V> action) {
+		int count = 0;
+		while (node != EXT && maxEnd[node] >= from) {
+			count += overlap(left[node], from, to, action);
+			if (start[node] > to)
+				break;
+			if (end[node] >= from) {
+				action.accept(start[node], end[node], (V) payload[node]);
+				count++;
+			}
+			node = right[node]; //the right son is walked in the loop instead of recursing
+		}
+		return count;
+	}
+
+	/**
+	 * public long maxEnd()
+	 *
+	 * Returns the largest end of all intervals, or Long.MIN_VALUE if the tree is empty
+	 */
+	public long maxEnd() {
+		return maxEnd[root];
+	}
+
+	/**
+	 * public List<Interval<V>> toList()
+	 *
+	 * Returns all intervals in start order, or an empty list if the tree is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Interval<V>> toList() {
+		List<Interval<V>> all = new ArrayList<>(size());
+		for (int x = empty() ? EXT : min; x != EXT; x = successor(x))
+			all.add(new Interval<>(start[x], end[x], (V) payload[x]));
+		return all;
+	}
+}
@@ -0,0 +1,191 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *
+ * LongIntWAVLTree
+ *
+ * A WAVL Tree mapping primitive long keys to primitive int values, on the
+ * array engine of AbstractArrayWAVLTree: nothing is boxed, and each item costs
+ * its key and value plus five ints of structure. Ranks, rotations and rebalance
+ * counts follow WAVLTree.
+ *
+ */
+
+public class LongIntWAVLTree extends AbstractArrayWAVLTree {
+
+	private long[] key;
+	private int[] value;
+
+
+	public LongIntWAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongIntWAVLTree(int initialCapacity) {
+		super(initialCapacity);
+		key = new long[capacity()];
+		value = new int[capacity()];
+	}
+
+	@Override
+	protected void growItems(int capacity) {
+		key = Arrays.copyOf(key, capacity);
+		value = Arrays.copyOf(value, capacity);
+	}
+
+	@Override
+	protected void moveItem(int from, int to) {
+		key[to] = key[from];
+		value[to] = value[from];
+	}
+
+	@Override
+	protected void clearItem(int node) {
+		//primitives only, nothing to release
+	}
+
+	/**
+	 * public boolean containsKey(long k)
+	 *
+	 * returns true if and only if an item with key k is in the tree
+	 */
+	public boolean containsKey(long k) {
+		return find(k) != EXT;
+	}
+
+	/**
+	 * public int search(long k, int notFound)
+	 *
+	 * returns the value of the item with key k if it exists in the tree
+	 * otherwise, returns notFound
+	 */
+	public int search(long k, int notFound) {
+		int current = find(k);
+		return current == EXT ? notFound : value[current];
+	}
+
+	private int find(long k) {
+		int current = root;
+		while (current != EXT && key[current] != k)
+			current = key[current] > k ? left[current] : right[current];
+		return current;
+	}
+
+	/**
+	 * public int insert(long k, int v)
+	 *
+	 * inserts an item with key k and value v to the WAVL tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public int insert(long k, int v) {
+		int p = EXT;
+		boolean asLeft = false;
+		for (int current = root; current != EXT; current = asLeft ? left[current] : right[current]) {
+			if (key[current] == k)
+				return -1;
+			p = current;
+			asLeft = key[current] > k;
+		}
+		int node = newNode(p);
+		key[node] = k;
+		value[node] = v;
+		return insertNode(node, p, asLeft);
+	}
+
+	/**
+	 * public int delete(long k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(long k) {
+		int current = find(k);
+		if (current == EXT)
+			return -1;
+		return deleteNode(current);
+	}
+
+	/**
+	 * public long minKey()
+	 *
+	 * Returns the smallest key in the tree,
+	 * throws NoSuchElementException if the tree is empty
+	 */
+	public long minKey() {
+		return key[nonEmpty(min)];
+	}
+
+	public long maxKey() {
+		return key[nonEmpty(max)];
+	}
+
+	/**
+	 * public int min()
+	 *
+	 * Returns the value of the item with the smallest key in the tree,
+	 * throws NoSuchElementException if the tree is empty
+	 */
+	public int min() {
+		return value[nonEmpty(min)];
+	}
+
+	public int max() {
+		return value[nonEmpty(max)];
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the value of the i'th smallest key,
+	 * throws NoSuchElementException if there is no such key
+	 */
+	public int select(int i) {
+		return value[nonEmpty(selectNode(i))];
+	}
+
+	public long selectKey(int i) {
+		return key[nonEmpty(selectNode(i))];
+	}
+
+	private static int nonEmpty(int node) {
+		if (node == EXT)
+			throw new NoSuchElementException();
+		return node;
+	}
+
+	/**
+	 * public long[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public long[] keysToArray() {
+		long[] arr = new long[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = key[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public int[] infoToArray()
+	 *
+	 * Returns an array which contains all values in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] infoToArray() {
+		int[] arr = new int[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = value[x];
+			x = successor(x);
+		}
+		return arr;
+	}
+}
@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * OffHeapWAVLTree
+ *
+ * A WAVL Tree with the same API and rebalancing as ArrayWAVLTree, whose nodes
+ * live in fixed size slots of a direct ByteBuffer instead of the Java heap.
+ * The rebalancing is AbstractArrayWAVLTree's: the node accessors it overrides
+ * read and write the slots.
+ * With open(file, ...) the buffer is a memory mapped file, so a reopened tree
+ * can serve search and select right away without rebuilding.
+ *
+ * Buffer layout (little endian):
+ * header  - magic, format version, slot size, max info bytes, capacity,
+ *           next unused slot, root slot, min slot, max slot, free list head
+ * slot i  - key, rank, left, right, parent, subtree size, info length, info bytes
+ * slot 0 is the shared external node (EXT). info is stored as UTF-8 and may not
+ * be longer than the maxValueBytes the tree was created with.
+ * The whole buffer is limited to 2GB.
+ *
+ */
+
+public class OffHeapWAVLTree extends AbstractArrayWAVLTree implements AutoCloseable {
+
+	private static final int MAGIC = 0x57415654; //"WAVT"
+	private static final int VERSION = 1;
+
+	//header offsets
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_SLOT_SIZE = 8;
+	private static final int H_MAX_VALUE = 12;
+	private static final int H_CAPACITY = 16;
+	private static final int H_NEXT = 20;
+	private static final int H_ROOT = 24;
+	private static final int H_MIN = 28;
+	private static final int H_MAX = 32;
+	private static final int H_FREE = 36;
+	private static final int HEADER_SIZE = 64;
+
+	//slot offsets
+	private static final int KEY = 0;
+	private static final int RANK = 4;
+	private static final int LEFT = 8;
+	private static final int RIGHT = 12;
+	private static final int PARENT = 16;
+	private static final int SIZE = 20;
+	private static final int VALUE_LEN = 24;
+	private static final int VALUE = 28;
+
+	private ByteBuffer buf;
+	private final FileChannel channel; //null if the tree is not file backed
+	private final int slotSize;
+	private final int maxValueBytes;
+	private int capacity;
+
+
+	public OffHeapWAVLTree(int maxValueBytes) {
+		this(maxValueBytes, DEFAULT_CAPACITY);
+	}
+
+	public OffHeapWAVLTree(int maxValueBytes, int initialCapacity) {
+		this.channel = null;
+		this.maxValueBytes = maxValueBytes;
+		this.slotSize = VALUE + maxValueBytes;
+		this.capacity = Math.max(2, initialCapacity + 1);
+		this.buf = ByteBuffer.allocateDirect(bytes(capacity)).order(ByteOrder.LITTLE_ENDIAN);
+		format();
+	}
+
+	private OffHeapWAVLTree(FileChannel channel, int maxValueBytes, int capacity, boolean create) throws IOException {
+		this.channel = channel;
+		if (create) {
+			this.maxValueBytes = maxValueBytes;
+			this.slotSize = VALUE + maxValueBytes;
+			this.capacity = capacity;
+			this.buf = map(capacity);
+			format();
+		}
+		else {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(H_MAGIC) != MAGIC)
+				throw new IOException("not a WAVL tree file");
+			if (header.getInt(H_VERSION) != VERSION)
+				throw new IOException("unsupported format version " + header.getInt(H_VERSION));
+			this.slotSize = header.getInt(H_SLOT_SIZE);
+			this.maxValueBytes = header.getInt(H_MAX_VALUE);
+			this.capacity = header.getInt(H_CAPACITY);
+			if (channel.size() < bytes(this.capacity))
+				throw new IOException("file is shorter than its " + this.capacity + " slots");
+			this.buf = map(this.capacity);
+			next = buf.getInt(H_NEXT);
+			root = buf.getInt(H_ROOT);
+			min = buf.getInt(H_MIN);
+			max = buf.getInt(H_MAX);
+			free = buf.getInt(H_FREE);
+		}
+	}
+
+	/**
+	 * public static OffHeapWAVLTree open(Path file, int maxValueBytes)
+	 *
+	 * opens the tree stored in file, or creates an empty one if the file is empty
+	 * or does not exist. maxValueBytes is only used when a new tree is created.
+	 * throws IOException if the file holds something else or was cut short, a
+	 * non empty file too short for the header included: it is never re-formatted.
+	 */
+	public static OffHeapWAVLTree open(Path file, int maxValueBytes) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long size = channel.size();
+			if (size > 0 && size < HEADER_SIZE)
+				throw new IOException("file is too short for a WAVL tree header: " + size + " bytes");
+			return new OffHeapWAVLTree(channel, maxValueBytes, DEFAULT_CAPACITY, size == 0);
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * public void force()
+	 *
+	 * writes the tree to its file, if the tree is file backed
+	 */
+	public void force() {
+		if (channel != null)
+			((MappedByteBuffer) buf).force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			force();
+			channel.close();
+		}
+	}
+
+	private void format() {
+		buf.putInt(H_MAGIC, MAGIC);
+		buf.putInt(H_VERSION, VERSION);
+		buf.putInt(H_SLOT_SIZE, slotSize);
+		buf.putInt(H_MAX_VALUE, maxValueBytes);
+		buf.putInt(H_CAPACITY, capacity);
+		root = EXT;
+		min = EXT;
+		max = EXT;
+		free = EXT;
+		next = 1;
+		writeHeader();
+		put(EXT, RANK, -1); //external node rank is -1, subtree size 0
+		put(EXT, SIZE, 0);
+		put(EXT, LEFT, EXT);
+		put(EXT, RIGHT, EXT);
+		put(EXT, PARENT, EXT);
+	}
+
+	private void writeHeader() {
+		buf.putInt(H_NEXT, next);
+		buf.putInt(H_ROOT, root);
+		buf.putInt(H_MIN, min);
+		buf.putInt(H_MAX, max);
+		buf.putInt(H_FREE, free);
+	}
+
+	private int bytes(int slots) {
+		long bytes = HEADER_SIZE + (long) slots * slotSize;
+		if (bytes > Integer.MAX_VALUE)
+			throw new IllegalStateException("tree is full");
+		return (int) bytes;
+	}
+
+	private ByteBuffer map(int slots) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes(slots)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private int get(int node, int field) {
+		return buf.getInt(HEADER_SIZE + node * slotSize + field);
+	}
+
+	private void put(int node, int field, int v) {
+		buf.putInt(HEADER_SIZE + node * slotSize + field, v);
+	}
+
+	private int key(int node) { return get(node, KEY); }
+
+	@Override
+	protected int rank(int node) { return get(node, RANK); }
+	@Override
+	protected int left(int node) { return get(node, LEFT); }
+	@Override
+	protected int right(int node) { return get(node, RIGHT); }
+	@Override
+	protected int parent(int node) { return get(node, PARENT); }
+	@Override
+	protected int size(int node) { return get(node, SIZE); }
+
+	@Override
+	protected void setRank(int node, int r) { put(node, RANK, r); }
+	@Override
+	protected void setLeft(int node, int l) { put(node, LEFT, l); }
+	@Override
+	protected void setRight(int node, int r) { put(node, RIGHT, r); }
+	@Override
+	protected void setParent(int node, int p) { put(node, PARENT, p); }
+	@Override
+	protected void setSize(int node, int s) { put(node, SIZE, s); }
+
+	@Override
+	protected int capacity() {
+		return capacity;
+	}
+
+	private String value(int node) {
+		int len = get(node, VALUE_LEN);
+		if (len < 0)
+			return null;
+		byte[] bytes = new byte[len];
+		buf.get(HEADER_SIZE + node * slotSize + VALUE, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void putValue(int node, byte[] bytes) {
+		if (bytes == null) {
+			put(node, VALUE_LEN, -1);
+			return;
+		}
+		put(node, VALUE_LEN, bytes.length);
+		buf.put(HEADER_SIZE + node * slotSize + VALUE, bytes);
+	}
+
+	@Override
+	protected void moveItem(int from, int to) {
+		put(to, KEY, key(from));
+		copyValue(from, to);
+	}
+
+	@Override
+	protected void clearItem(int node) {
+		//the next item stored in the slot overwrites it
+	}
+
+	@Override
+	protected void growItems(int capacity) {
+		//the items are in the node slots, grown with them
+	}
+
+	private void copyValue(int from, int to) {
+		int len = get(from, VALUE_LEN);
+		put(to, VALUE_LEN, len);
+		if (len > 0)
+			buf.put(HEADER_SIZE + to * slotSize + VALUE, buf, HEADER_SIZE + from * slotSize + VALUE, len);
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		int current = find(k);
+		return current == EXT ? null : value(current);
+	}
+
+	private int find(int k) {
+		int current = root;
+		while (current != EXT) {
+			int key = key(current);
+			if (key == k)
+				break;
+			current = key > k ? left(current) : right(current);
+		}
+		return current;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the WAVL tree.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 * throws IllegalArgumentException if i is longer than maxValueBytes in UTF-8.
+	 */
+	public int insert(int k, String i) {
+		byte[] bytes = i == null ? null : i.getBytes(StandardCharsets.UTF_8);
+		if (bytes != null && bytes.length > maxValueBytes)
+			throw new IllegalArgumentException("info is longer than " + maxValueBytes + " bytes");
+		try {
+			return insert(k, bytes);
+		}
+		finally {
+			writeHeader();
+		}
+	}
+
+	private int insert(int k, byte[] bytes) {
+		int p = EXT;
+		boolean asLeft = false;
+		for (int current = root; current != EXT; current = asLeft ? left(current) : right(current)) {
+			int key = key(current);
+			if (key == k)
+				return -1;
+			p = current;
+			asLeft = key > k;
+		}
+		int node = newNode(p);
+		put(node, KEY, k);
+		putValue(node, bytes);
+		return insertNode(node, p, asLeft);
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public int delete(int k) {
+		try {
+			int current = find(k);
+			if (current == EXT)
+				return -1;
+			return deleteNode(current);
+		}
+		finally {
+			writeHeader();
+		}
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		return empty() ? null : value(min);
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		return empty() ? null : value(max);
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = key(x);
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int x = min;
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = value(x);
+			x = successor(x);
+		}
+		return arr;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key)
+	 *
+	 */
+	public String select(int i) {
+		int node = selectNode(i);
+		return node == EXT ? null : value(node);
+	}
+
+	@Override
+	protected void growNodes(int newCapacity) {
+		int bytes = bytes(newCapacity);
+		if (channel != null) {
+			try {
+				buf = map(newCapacity); //mapping past the end extends the file
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		else {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			bigger.put(0, buf, 0, bytes(capacity));
+			buf = bigger;
+		}
+		capacity = newCapacity;
+		buf.putInt(H_CAPACITY, capacity);
+	}
+}
@@ -0,0 +1,377 @@
+/**
+ *
+ * PersistentWAVLTree
+ *
+ * A persistent (path copying) WAVL Tree. Nodes are immutable and have no parent
+ * pointers, so insert and delete copy only the nodes on the path from the root
+ * (and the nodes touched by rotations) and then publish a new root.
+ * snapshot() returns the current version in O(1). A snapshot is immutable and
+ * thread safe: readers never block, and see the same size, min, max and select
+ * for as long as they hold it. Writers are serialized on the tree.
+ *
+ * Ranks, rotations and rebalance counts follow WAVLTree.
+ *
+ */
+
+public class PersistentWAVLTree {
+
+	private static final Snapshot EMPTY = new Snapshot(null);
+
+	private volatile Snapshot current = EMPTY;
+	private int countBalance; //rebalance count of the running update, guarded by this
+	private boolean changed; //whether the running update found its key, guarded by this
+
+
+	/**
+	 * public Snapshot snapshot()
+	 *
+	 * Returns an immutable view of the tree as it is now.
+	 */
+	public Snapshot snapshot() {
+		return current;
+	}
+
+	/**
+	 * public synchronized int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i and publishes the new version.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.insert,
+	 * or -1 if an item with key k already exists in the tree.
+	 */
+	public synchronized int insert(int k, String i) {
+		countBalance = 0;
+		changed = true;
+		Node root = insert(current.root, k, i);
+		if (!changed)
+			return -1;
+		current = new Snapshot(root);
+		return countBalance;
+	}
+
+	/**
+	 * public synchronized int delete(int k)
+	 *
+	 * deletes the item with key k, if it is there, and publishes the new version.
+	 * returns the number of rebalancing operations, counted as in WAVLTree.delete,
+	 * or -1 if an item with key k was not found in the tree.
+	 */
+	public synchronized int delete(int k) {
+		countBalance = 0;
+		changed = false;
+		Node root = delete(current.root, k);
+		if (!changed)
+			return -1;
+		current = root == null ? EMPTY : new Snapshot(root);
+		return countBalance;
+	}
+
+	public boolean empty() {
+		return current.empty();
+	}
+
+	public String search(int k) {
+		return current.search(k);
+	}
+
+	public String select(int i) {
+		return current.select(i);
+	}
+
+	public String min() {
+		return current.min();
+	}
+
+	public String max() {
+		return current.max();
+	}
+
+	public int size() {
+		return current.size();
+	}
+
+	public int[] keysToArray() {
+		return current.keysToArray();
+	}
+
+	public String[] infoToArray() {
+		return current.infoToArray();
+	}
+
+	private static int rank(Node n) {
+		return n == null ? -1 : n.rank;
+	}
+
+	private Node insert(Node n, int k, String i) {
+		if (n == null)
+			return new Node(k, i, 0, null, null);
+		if (n.key == k) {
+			changed = false;
+			return n;
+		}
+		if (k < n.key) {
+			Node left = insert(n.left, k, i);
+			if (!changed)
+				return n;
+			if (left.rank < n.rank)
+				return new Node(n.key, n.value, n.rank, left, n.right);
+			if (n.rank - rank(n.right) == 1) { //promote
+				countBalance += 1;
+				return new Node(n.key, n.value, n.rank + 1, left, n.right);
+			}
+			if (left.rank - rank(left.left) == 1) { //outer child rank diff 1, single rotation right
+				countBalance += 2;
+				return new Node(left.key, left.value, left.rank, left.left,
+						new Node(n.key, n.value, n.rank - 1, left.right, n.right));
+			}
+			Node y = left.right; //inner child rank diff 1, double rotation
+			countBalance += 5;
+			return new Node(y.key, y.value, n.rank,
+					new Node(left.key, left.value, left.rank - 1, left.left, y.left),
+					new Node(n.key, n.value, n.rank - 1, y.right, n.right));
+		}
+		else {
+			Node right = insert(n.right, k, i);
+			if (!changed)
+				return n;
+			if (right.rank < n.rank)
+				return new Node(n.key, n.value, n.rank, n.left, right);
+			if (n.rank - rank(n.left) == 1) { //promote
+				countBalance += 1;
+				return new Node(n.key, n.value, n.rank + 1, n.left, right);
+			}
+			if (right.rank - rank(right.right) == 1) { //outer child rank diff 1, single rotation left
+				countBalance += 2;
+				return new Node(right.key, right.value, right.rank,
+						new Node(n.key, n.value, n.rank - 1, n.left, right.left), right.right);
+			}
+			Node y = right.left; //inner child rank diff 1, double rotation
+			countBalance += 5;
+			return new Node(y.key, y.value, n.rank,
+					new Node(n.key, n.value, n.rank - 1, n.left, y.left),
+					new Node(right.key, right.value, right.rank - 1, y.right, right.right));
+		}
+	}
+
+	private Node delete(Node n, int k) {
+		if (n == null)
+			return null;
+		if (k < n.key) {
+			Node left = delete(n.left, k);
+			return changed ? fixLeft(n.key, n.value, n.rank, left, n.right) : n;
+		}
+		if (k > n.key) {
+			Node right = delete(n.right, k);
+			return changed ? fixRight(n.key, n.value, n.rank, n.left, right) : n;
+		}
+		changed = true;
+		if (n.left == null)
+			return n.right;
+		if (n.right == null)
+			return n.left;
+		Node pred = n.left; //binary: the predecessor takes n's place
+		while (pred.right != null)
+			pred = pred.right;
+		return fixLeft(pred.key, pred.value, n.rank, delete(n.left, pred.key), n.right);
+	}
+
+	/**
+	 * private Node fixLeft(...)
+	 *
+	 * builds a node whose left subtree just lost an item, fixing a 2,2 leaf or
+	 * a left rank diff of 3 by demotions or a single or double rotation.
+	 */
+	private Node fixLeft(int key, String value, int r, Node left, Node right) {
+		if (left == null && right == null) {
+			if (r != 0) //2,2 leaf
+				countBalance += 1;
+			return new Node(key, value, 0, null, null);
+		}
+		if (r - rank(left) < 3)
+			return new Node(key, value, r, left, right);
+		if (r - rank(right) == 2) { //demote
+			countBalance += 1;
+			return new Node(key, value, r - 1, left, right);
+		}
+		Node y = right;
+		if (y.rank - rank(y.left) == 2 && y.rank - rank(y.right) == 2) { //double demote
+			countBalance += 2;
+			return new Node(key, value, r - 1, left, new Node(y.key, y.value, y.rank - 1, y.left, y.right));
+		}
+		if (y.rank - rank(y.right) == 1) { //single rotation left
+			countBalance += 3;
+			Node z = left == null && y.left == null
+					? new Node(key, value, 0, null, null)
+					: new Node(key, value, r - 1, left, y.left);
+			return new Node(y.key, y.value, r, z, y.right);
+		}
+		Node v = y.left; //double rotation
+		countBalance += 5;
+		return new Node(v.key, v.value, r,
+				new Node(key, value, r - 2, left, v.left),
+				new Node(y.key, y.value, r - 2, v.right, y.right));
+	}
+
+	private Node fixRight(int key, String value, int r, Node left, Node right) {
+		if (left == null && right == null) {
+			if (r != 0) //2,2 leaf
+				countBalance += 1;
+			return new Node(key, value, 0, null, null);
+		}
+		if (r - rank(right) < 3)
+			return new Node(key, value, r, left, right);
+		if (r - rank(left) == 2) { //demote
+			countBalance += 1;
+			return new Node(key, value, r - 1, left, right);
+		}
+		Node y = left;
+		if (y.rank - rank(y.left) == 2 && y.rank - rank(y.right) == 2) { //double demote
+			countBalance += 2;
+			return new Node(key, value, r - 1, new Node(y.key, y.value, y.rank - 1, y.left, y.right), right);
+		}
+		if (y.rank - rank(y.left) == 1) { //single rotation right
+			countBalance += 3;
+			Node z = right == null && y.right == null
+					? new Node(key, value, 0, null, null)
+					: new Node(key, value, r - 1, y.right, right);
+			return new Node(y.key, y.value, r, y.left, z);
+		}
+		Node v = y.right; //double rotation
+		countBalance += 5;
+		return new Node(v.key, v.value, r,
+				new Node(y.key, y.value, r - 2, y.left, v.left),
+				new Node(key, value, r - 2, v.right, right));
+	}
+
+	/**
+	 * public static class Snapshot
+	 *
+	 * an immutable version of the tree.
+	 */
+	public static class Snapshot {
+		private final Node root;
+		private final Node min;
+		private final Node max;
+
+		private Snapshot(Node root) {
+			this.root = root;
+			Node n = root;
+			while (n != null && n.left != null)
+				n = n.left;
+			min = n;
+			n = root;
+			while (n != null && n.right != null)
+				n = n.right;
+			max = n;
+		}
+
+		/**
+		 * public boolean empty()
+		 *
+		 * returns true if and only if the snapshot is empty
+		 */
+		public boolean empty() {
+			return root == null;
+		}
+
+		/**
+		 * public String search(int k)
+		 *
+		 * returns the info of an item with key k if it exists in the snapshot
+		 * otherwise, returns null
+		 */
+		public String search(int k) {
+			Node n = root;
+			while (n != null) {
+				if (n.key == k)
+					return n.value;
+				n = n.key > k ? n.left : n.right;
+			}
+			return null;
+		}
+
+		/**
+		 * public String select(int i)
+		 *
+		 * Returns the value of the i'th smallest key (null if there is no such key)
+		 */
+		public String select(int i) {
+			if (i < 1 || i > size())
+				return null;
+			Node n = root;
+			while (true) {
+				int s = n.left == null ? 0 : n.left.size;
+				if (s + 1 == i)
+					return n.value;
+				if (i <= s)
+					n = n.left;
+				else {
+					n = n.right;
+					i -= s + 1;
+				}
+			}
+		}
+
+		public String min() {
+			return min == null ? null : min.value;
+		}
+
+		public String max() {
+			return max == null ? null : max.value;
+		}
+
+		public int size() {
+			return root == null ? 0 : root.size;
+		}
+
+		public int[] keysToArray() {
+			int[] arr = new int[size()];
+			fillKeys(root, arr, 0);
+			return arr;
+		}
+
+		public String[] infoToArray() {
+			String[] arr = new String[size()];
+			fillInfo(root, arr, 0);
+			return arr;
+		}
+
+		private static int fillKeys(Node n, int[] arr, int i) {
+			if (n == null)
+				return i;
+			i = fillKeys(n.left, arr, i);
+			arr[i++] = n.key;
+			return fillKeys(n.right, arr, i);
+		}
+
+		private static int fillInfo(Node n, String[] arr, int i) {
+			if (n == null)
+				return i;
+			i = fillInfo(n.left, arr, i);
+			arr[i++] = n.value;
+			return fillInfo(n.right, arr, i);
+		}
+	}
+
+	/**
+	 * private static class Node
+	 *
+	 * an immutable node. null stands for the external node (rank -1, size 0).
+	 */
+	private static class Node {
+		private final int key;
+		private final String value;
+		private final int rank;
+		private final Node left;
+		private final Node right;
+		private final int size;
+
+		private Node(int key, String value, int rank, Node left, Node right) {
+			this.key = key;
+			this.value = value;
+			this.rank = rank;
+			this.left = left;
+			this.right = right;
+			this.size = (left == null ? 0 : left.size) + (right == null ? 0 : right.size) + 1;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ * RebalanceListener
+ *
+ * Receives the rebalancing work of every insert, delete and bulk call of a WAVLTree,
+ * see WAVLTree.setRebalanceListener. A tree without a listener doesn't count.
+ *
+ */
+
+public interface RebalanceListener {
+
+	/**
+	 * void operationDone(RebalanceStats stats)
+	 *
+	 * called at the end of every insert and delete, and once per catchUp, insertAll,
+	 * deleteAll, join and split with stats.operation BULK and the counts of the whole
+	 * call. stats is reused by the tree for its next operation, so copy whatever
+	 * should be kept.
+	 */
+	void operationDone(RebalanceStats stats);
+}
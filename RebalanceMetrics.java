@@ -0,0 +1,208 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *
+ * RebalanceMetrics
+ *
+ * A RebalanceListener that keeps cumulative counters of the rebalancing work,
+ * log-linear histograms (HdrHistogram style) of the per operation path length,
+ * subtree size updates and rebalance count, and optionally emits a JFR event
+ * per operation. Bulk calls add to the counters but not to the histograms,
+ * which stay those of single inserts and deletes. It may be shared by trees running in different threads.
+ *
+ */
+
+public class RebalanceMetrics implements RebalanceListener {
+
+	private static final EventType EVENT_TYPE = EventType.getEventType(RebalanceEvent.class);
+
+	private final boolean jfr;
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+	private final LongAdder bulks = new LongAdder();
+	private final LongAdder promotions = new LongAdder();
+	private final LongAdder demotions = new LongAdder();
+	private final LongAdder doubleDemotions = new LongAdder();
+	private final LongAdder singleRotations = new LongAdder();
+	private final LongAdder doubleRotations = new LongAdder();
+	private final LongAdder pathLength = new LongAdder();
+	private final LongAdder sizeUpdates = new LongAdder();
+	private final Histogram pathLengths = new Histogram();
+	private final Histogram sizeUpdateCounts = new Histogram();
+	private final Histogram rebalanceCounts = new Histogram();
+
+
+	public RebalanceMetrics() {
+		this(false);
+	}
+
+	/**
+	 * public RebalanceMetrics(boolean jfr)
+	 *
+	 * if jfr is true, every operation also emits a WAVLTree.Rebalance JFR event
+	 * while a recording has it enabled
+	 */
+	public RebalanceMetrics(boolean jfr) {
+		this.jfr = jfr;
+	}
+
+	@Override
+	public void operationDone(RebalanceStats stats) {
+		(stats.operation == RebalanceStats.INSERT ? inserts : stats.operation == RebalanceStats.DELETE ? deletes : bulks).increment();
+		if (stats.promotions != 0)
+			promotions.add(stats.promotions);
+		if (stats.demotions != 0)
+			demotions.add(stats.demotions);
+		if (stats.doubleDemotions != 0)
+			doubleDemotions.add(stats.doubleDemotions);
+		if (stats.singleRotations != 0)
+			singleRotations.add(stats.singleRotations);
+		if (stats.doubleRotations != 0)
+			doubleRotations.add(stats.doubleRotations);
+		pathLength.add(stats.pathLength);
+		sizeUpdates.add(stats.sizeUpdates);
+		if (stats.operation != RebalanceStats.BULK) {
+			pathLengths.record(stats.pathLength);
+			sizeUpdateCounts.record(stats.sizeUpdates);
+			if (stats.result >= 0)
+				rebalanceCounts.record(stats.result);
+		}
+
+		if (jfr && EVENT_TYPE.isEnabled()) {
+			RebalanceEvent event = new RebalanceEvent();
+			event.operation = stats.operation == RebalanceStats.INSERT ? "insert" : stats.operation == RebalanceStats.DELETE ? "delete" : "bulk";
+			event.result = stats.result;
+			event.promotions = stats.promotions;
+			event.demotions = stats.demotions;
+			event.doubleDemotions = stats.doubleDemotions;
+			event.singleRotations = stats.singleRotations;
+			event.doubleRotations = stats.doubleRotations;
+			event.pathLength = stats.pathLength;
+			event.sizeUpdates = stats.sizeUpdates;
+			event.commit();
+		}
+	}
+
+	public long inserts() { return inserts.sum(); }
+	public long deletes() { return deletes.sum(); }
+	public long bulks() { return bulks.sum(); }
+	public long promotions() { return promotions.sum(); }
+	public long demotions() { return demotions.sum(); }
+	public long doubleDemotions() { return doubleDemotions.sum(); }
+	public long singleRotations() { return singleRotations.sum(); }
+	public long doubleRotations() { return doubleRotations.sum(); }
+	public long pathLength() { return pathLength.sum(); }
+	public long sizeUpdates() { return sizeUpdates.sum(); }
+
+	/** per operation path length */
+	public Histogram pathLengths() { return pathLengths; }
+
+	/** per operation subtree size updates */
+	public Histogram sizeUpdateCounts() { return sizeUpdateCounts; }
+
+	/** per operation rebalance count, as returned by insert/delete */
+	public Histogram rebalanceCounts() { return rebalanceCounts; }
+
+	@Override
+	public String toString() {
+		return "inserts=" + inserts() + " deletes=" + deletes() + " bulks=" + bulks()
+				+ " promotions=" + promotions() + " demotions=" + demotions()
+				+ " doubleDemotions=" + doubleDemotions()
+				+ " singleRotations=" + singleRotations() + " doubleRotations=" + doubleRotations()
+				+ " pathLength=" + pathLength() + " sizeUpdates=" + sizeUpdates()
+				+ " p99PathLength=" + pathLengths.percentile(99)
+				+ " p99Rebalance=" + rebalanceCounts.percentile(99);
+	}
+
+	/**
+	 * public static class Histogram
+	 *
+	 * counts of non negative int values in log-linear buckets: values below 16
+	 * are exact, larger ones are kept with 3 significant bits (12.5% precision).
+	 */
+	public static class Histogram {
+		private static final int LINEAR = 16;
+		private static final int SUB_BUCKETS = 8;
+		private final AtomicLongArray counts = new AtomicLongArray(LINEAR + (31 - 4) * SUB_BUCKETS);
+
+		public void record(int value) {
+			counts.incrementAndGet(index(Math.max(0, value)));
+		}
+
+		public long count() {
+			long count = 0;
+			for (int i = 0; i < counts.length(); i++)
+				count += counts.get(i);
+			return count;
+		}
+
+		/**
+		 * public int percentile(double p)
+		 *
+		 * returns the smallest value v (up to bucket precision) such that
+		 * p percent of the recorded values are at most v, or 0 if empty
+		 */
+		public int percentile(double p) {
+			long target = (long) Math.ceil(count() * p / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen >= target && seen > 0)
+					return highestValue(i);
+			}
+			return 0;
+		}
+
+		private static int index(int value) {
+			if (value < LINEAR)
+				return value;
+			int msb = 31 - Integer.numberOfLeadingZeros(value); //at least 4
+			int top = value >>> (msb - 3); //the 3 bits below the msb, plus the msb
+			return LINEAR + (msb - 4) * SUB_BUCKETS + (top - SUB_BUCKETS);
+		}
+
+		private static int highestValue(int index) {
+			if (index < LINEAR)
+				return index;
+			int msb = (index - LINEAR) / SUB_BUCKETS + 4;
+			int top = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+			return (int) ((((long) top + 1) << (msb - 3)) - 1);
+		}
+	}
+
+	/**
+	 * public static class RebalanceEvent
+	 *
+	 * the JFR event of a single insert, delete or bulk call
+	 */
+	@Name("WAVLTree.Rebalance")
+	@Label("WAVL Rebalance")
+	@Category("WAVLTree")
+	public static class RebalanceEvent extends Event {
+		@Label("Operation")
+		String operation;
+		@Label("Rebalance Count")
+		int result;
+		@Label("Promotions")
+		int promotions;
+		@Label("Demotions")
+		int demotions;
+		@Label("Double Demotions")
+		int doubleDemotions;
+		@Label("Single Rotations")
+		int singleRotations;
+		@Label("Double Rotations")
+		int doubleRotations;
+		@Label("Path Length")
+		int pathLength;
+		@Label("Size Updates")
+		int sizeUpdates;
+	}
+}
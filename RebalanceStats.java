@@ -0,0 +1,38 @@
+/**
+ *
+ * RebalanceStats
+ *
+ * The rebalancing work done by a single WAVLTree insert or delete, or by a
+ * single bulk call (catchUp, insertAll, deleteAll, join or split), as handed
+ * to a RebalanceListener.
+ *
+ */
+
+public class RebalanceStats {
+
+	public static final int INSERT = 0;
+	public static final int DELETE = 1;
+	public static final int BULK = 2; //catchUp, insertAll, deleteAll, join or split
+
+	public int operation; //INSERT, DELETE or BULK
+	public int result; //the rebalance count (of the whole call for BULK), or -1 if insert/delete found nothing to do
+	public int promotions;
+	public int demotions;
+	public int doubleDemotions;
+	public int singleRotations;
+	public int doubleRotations;
+	public int pathLength; //nodes walked from the root on the way down
+	public int sizeUpdates; //subTreeSize fields changed
+
+	void begin(int operation) {
+		this.operation = operation;
+		result = 0;
+		promotions = 0;
+		demotions = 0;
+		doubleDemotions = 0;
+		singleRotations = 0;
+		doubleRotations = 0;
+		pathLength = 0;
+		sizeUpdates = 0;
+	}
+}
@@ -0,0 +1,422 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ *
+ * ShardedWAVLTree
+ *
+ * A thread safe ordered map over int keys, split into key ranges (shards) that
+ * are each held by their own WAVLTree and guarded by their own lock, so writers
+ * to different ranges don't contend.
+ *
+ * Shard s holds the keys in [low[s], low[s + 1]). When a shard grows to more than
+ * SKEW times the average shard size, half the difference with its smaller neighbour
+ * is moved over with WAVLTree.split and WAVLTree.join, and the boundary between
+ * them moves accordingly. If the neighbour is about as large, all shards are
+ * re-bulk-loaded with equal sizes instead. Moving boundaries takes the layout
+ * lock exclusively; every other operation holds it shared.
+ *
+ * size() and select(i) combine the shards' subtree sizes, keysToArray and
+ * infoToArray fill the output from all shards in parallel.
+ *
+ */
+
+public class ShardedWAVLTree {
+
+	private static final int SKEW = 2;
+	private static final int MIN_REBALANCE_SIZE = 1 << 10; //smaller shards are never rebalanced
+
+	private final int[] low; //low[s] is the smallest key shard s may hold
+	private final WAVLTree[] trees;
+	private final ReentrantLock[] locks;
+	private final ReentrantReadWriteLock layout = new ReentrantReadWriteLock();
+	private final AtomicInteger count = new AtomicInteger(); //approximate total size, for the skew check
+
+
+	/**
+	 * public ShardedWAVLTree(int shards)
+	 *
+	 * creates an empty map whose shards split the int key space evenly
+	 */
+	public ShardedWAVLTree(int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("shards must be positive");
+		low = new int[shards];
+		trees = new WAVLTree[shards];
+		locks = new ReentrantLock[shards];
+		long width = (1L << 32) / shards;
+		for (int s = 0; s < shards; s++) {
+			low[s] = (int) (Integer.MIN_VALUE + s * width);
+			trees[s] = new WAVLTree();
+			locks[s] = new ReentrantLock();
+		}
+	}
+
+	private int shardOf(int k) {
+		int lo = 0;
+		int hi = low.length - 1;
+		while (lo < hi) { //last shard whose low is <= k
+			int mid = (lo + hi + 1) >>> 1;
+			if (low[mid] <= k)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * as WAVLTree.insert, on the shard holding k
+	 */
+	public int insert(int k, String i) {
+		int s;
+		int result;
+		layout.readLock().lock();
+		try {
+			s = shardOf(k);
+			locks[s].lock();
+			try {
+				result = trees[s].insert(k, i);
+			}
+			finally {
+				locks[s].unlock();
+			}
+		}
+		finally {
+			layout.readLock().unlock();
+		}
+		if (result != -1 && skewed(s, count.incrementAndGet()))
+			rebalance(s);
+		return result;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * as WAVLTree.delete, on the shard holding k
+	 */
+	public int delete(int k) {
+		layout.readLock().lock();
+		try {
+			int s = shardOf(k);
+			locks[s].lock();
+			try {
+				int result = trees[s].delete(k);
+				if (result != -1)
+					count.decrementAndGet();
+				return result;
+			}
+			finally {
+				locks[s].unlock();
+			}
+		}
+		finally {
+			layout.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the map
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		layout.readLock().lock();
+		try {
+			int s = shardOf(k);
+			locks[s].lock();
+			try {
+				return trees[s].search(k);
+			}
+			finally {
+				locks[s].unlock();
+			}
+		}
+		finally {
+			layout.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the map, summing the shards' sizes
+	 * while holding all shard locks.
+	 */
+	public int size() {
+		layout.readLock().lock();
+		lockAll();
+		try {
+			int size = 0;
+			for (WAVLTree tree : trees)
+				size += tree.size();
+			return size;
+		}
+		finally {
+			unlockAll();
+			layout.readLock().unlock();
+		}
+	}
+
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key (null if there is no such key):
+	 * skips whole shards by their sizes, then selects within one shard.
+	 */
+	public String select(int i) {
+		layout.readLock().lock();
+		lockAll();
+		try {
+			if (i < 1)
+				return null;
+			for (WAVLTree tree : trees) {
+				int size = tree.size();
+				if (i <= size)
+					return tree.select(i);
+				i -= size;
+			}
+			return null;
+		}
+		finally {
+			unlockAll();
+			layout.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the smallest key, or null if the map is empty: locks the
+	 * shards one at a time from the first until a non-empty one is found. The
+	 * boundaries can't move under the layout lock, so that shard's min is the map's,
+	 * though an insert into an earlier shard may land after it was passed.
+	 */
+	public String min() {
+		layout.readLock().lock();
+		try {
+			for (int s = 0; s < trees.length; s++) {
+				locks[s].lock();
+				try {
+					if (!trees[s].empty())
+						return trees[s].min();
+				}
+				finally {
+					locks[s].unlock();
+				}
+			}
+			return null;
+		}
+		finally {
+			layout.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * as min, from the last shard down
+	 */
+	public String max() {
+		layout.readLock().lock();
+		try {
+			for (int s = trees.length - 1; s >= 0; s--) {
+				locks[s].lock();
+				try {
+					if (!trees[s].empty())
+						return trees[s].max();
+				}
+				finally {
+					locks[s].unlock();
+				}
+			}
+			return null;
+		}
+		finally {
+			layout.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array of all keys, each shard walking its items in order
+	 * straight into its own range of the output, in parallel.
+	 */
+	public int[] keysToArray() {
+		layout.readLock().lock();
+		lockAll();
+		try {
+			int[] offsets = offsets();
+			int[] arr = new int[offsets[trees.length]];
+			IntStream.range(0, trees.length).parallel().forEach(s -> {
+				WAVLTree.WAVLNode x = trees[s].peekMin();
+				for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+					arr[i] = x.getKey();
+					x = trees[s].successor(x);
+				}
+			});
+			return arr;
+		}
+		finally {
+			unlockAll();
+			layout.readLock().unlock();
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns all info sorted by their keys, like keysToArray.
+	 */
+	public String[] infoToArray() {
+		layout.readLock().lock();
+		lockAll();
+		try {
+			int[] offsets = offsets();
+			String[] arr = new String[offsets[trees.length]];
+			IntStream.range(0, trees.length).parallel().forEach(s -> {
+				WAVLTree.WAVLNode x = trees[s].peekMin();
+				for (int i = offsets[s]; i < offsets[s + 1]; i++) {
+					arr[i] = x.getValue();
+					x = trees[s].successor(x);
+				}
+			});
+			return arr;
+		}
+		finally {
+			unlockAll();
+			layout.readLock().unlock();
+		}
+	}
+
+	private int[] offsets() {
+		int[] offsets = new int[trees.length + 1];
+		for (int s = 0; s < trees.length; s++)
+			offsets[s + 1] = offsets[s] + trees[s].size();
+		return offsets;
+	}
+
+	private void lockAll() {
+		for (ReentrantLock lock : locks) //always in shard order
+			lock.lock();
+	}
+
+	private void unlockAll() {
+		for (int s = locks.length - 1; s >= 0; s--)
+			locks[s].unlock();
+	}
+
+	private boolean skewed(int s, int total) {
+		int size = trees[s].size(); //racy read, only a hint
+		return trees.length > 1 && size > MIN_REBALANCE_SIZE && size > SKEW * (total / trees.length);
+	}
+
+	/**
+	 * private void rebalance(int s)
+	 *
+	 * moves half the size difference between shard s and its smaller neighbour
+	 * over to the neighbour, if s is still skewed once the layout is locked.
+	 */
+	private void rebalance(int s) {
+		layout.writeLock().lock();
+		try {
+			if (!skewed(s, count.get()))
+				return;
+			boolean toRight = s == 0 || (s + 1 < trees.length && trees[s + 1].size() < trees[s - 1].size());
+			int n = toRight ? s + 1 : s - 1;
+			int move = (trees[s].size() - trees[n].size()) / 2;
+			if (move < trees[s].size() / 4) { //the neighbour is about as loaded, spread everything
+				redistribute();
+				return;
+			}
+			if (toRight) { //the largest move keys of s go to s + 1
+				int pivot = selectKey(trees[s], trees[s].size() - move);
+				WAVLTree upper = trees[s].split(pivot);
+				trees[n] = concat(upper, trees[n]);
+				low[n] = pivot + 1;
+			}
+			else { //the smallest move keys of s go to s - 1
+				int pivot = selectKey(trees[s], move);
+				WAVLTree upper = trees[s].split(pivot);
+				trees[n] = concat(trees[n], trees[s]);
+				trees[s] = upper;
+				low[s] = pivot + 1;
+			}
+		}
+		finally {
+			layout.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * private void redistribute()
+	 *
+	 * rebuilds all shards with equal sizes from the sorted items, in O(n).
+	 * called with the layout write lock held.
+	 */
+	private void redistribute() {
+		int[] offsets = offsets();
+		int n = offsets[trees.length];
+		if (n < trees.length)
+			return;
+		int[] keys = new int[n];
+		String[] info = new String[n];
+		for (int s = 0; s < trees.length; s++) {
+			System.arraycopy(trees[s].keysToArray(), 0, keys, offsets[s], trees[s].size());
+			System.arraycopy(trees[s].infoToArray(), 0, info, offsets[s], trees[s].size());
+		}
+		for (int s = 0; s < trees.length; s++) {
+			int from = (int) ((long) s * n / trees.length);
+			int to = (int) ((long) (s + 1) * n / trees.length);
+			trees[s] = WAVLTree.fromSorted(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(info, from, to));
+			low[s] = s == 0 ? Integer.MIN_VALUE : keys[from];
+		}
+		count.set(n);
+	}
+
+	/**
+	 * private static WAVLTree concat(WAVLTree lower, WAVLTree upper)
+	 *
+	 * joins two trees whose key ranges don't overlap, using the maximum of
+	 * lower as the pivot.
+	 */
+	private static WAVLTree concat(WAVLTree lower, WAVLTree upper) {
+		if (lower.empty())
+			return upper;
+		if (upper.empty())
+			return lower;
+		WAVLTree.WAVLNode max = lower.getRoot();
+		while (max.getRight().isInnerNode())
+			max = max.getRight();
+		int k = max.getKey();
+		String i = max.getValue();
+		lower.delete(k);
+		return WAVLTree.join(lower, k, i, upper);
+	}
+
+	private static int selectKey(WAVLTree tree, int i) {
+		WAVLTree.WAVLNode current = tree.getRoot();
+		while (true) {
+			int s = current.getLeft().getSubtreeSize();
+			if (s + 1 == i)
+				return current.getKey();
+			if (i <= s)
+				current = current.getLeft();
+			else {
+				current = current.getRight();
+				i -= s + 1;
+			}
+		}
+	}
+}
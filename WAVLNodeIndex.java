@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ *
+ * WAVLNodeIndex
+ *
+ * The optional hash index of WAVLTree: an open addressing map from int keys to
+ * the tree's nodes, in two parallel arrays (no boxing), with linear probing and
+ * backward shift deletion so there are no tombstones. A slot is free iff its
+ * node is null, so every int key, including -1, can be indexed.
+ *
+ * The table is a power of two and at most half full, so a lookup touches about
+ * one or two slots, instead of the O(log n) nodes of a descent from the root.
+ *
+ */
+
+class WAVLNodeIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+	private WAVLTree.WAVLNode[] nodes;
+	private int mask;
+	private int shift; //32 - log2(capacity), for fibonacci hashing
+	private int size;
+
+
+	WAVLNodeIndex(int expected) {
+		allocate(capacityFor(expected));
+	}
+
+	private static int capacityFor(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < 2L * expected)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		nodes = new WAVLTree.WAVLNode[capacity];
+		mask = capacity - 1;
+		shift = 32 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	private int slot(int k) {
+		return (k * 0x9E3779B9) >>> shift;
+	}
+
+	/**
+	 * WAVLTree.WAVLNode get(int k)
+	 *
+	 * returns the node with key k, or null if there is none
+	 */
+	WAVLTree.WAVLNode get(int k) {
+		for (int i = slot(k); ; i = (i + 1) & mask) {
+			WAVLTree.WAVLNode node = nodes[i];
+			if (node == null || keys[i] == k)
+				return node;
+		}
+	}
+
+	/**
+	 * void put(int k, WAVLTree.WAVLNode node)
+	 *
+	 * maps k to node, replacing the node k was mapped to if any
+	 */
+	void put(int k, WAVLTree.WAVLNode node) {
+		int i = slot(k);
+		while (nodes[i] != null) {
+			if (keys[i] == k) {
+				nodes[i] = node;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = k;
+		nodes[i] = node;
+		if (++size * 2 > nodes.length)
+			rehash(nodes.length << 1);
+	}
+
+	/**
+	 * void remove(int k)
+	 *
+	 * removes the mapping of k, if there is one. the entries after it in the probe
+	 * run are shifted back into the hole unless that would move them before their home slot.
+	 */
+	void remove(int k) {
+		int i = slot(k);
+		while (true) {
+			if (nodes[i] == null)
+				return;
+			if (keys[i] == k)
+				break;
+			i = (i + 1) & mask;
+		}
+		size--;
+		int hole = i;
+		for (int j = (i + 1) & mask; nodes[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j]);
+			if (((j - home) & mask) >= ((j - hole) & mask)) { //home is not in (hole, j]
+				keys[hole] = keys[j];
+				nodes[hole] = nodes[j];
+				hole = j;
+			}
+		}
+		nodes[hole] = null;
+	}
+
+	void clear() {
+		if (size == 0)
+			return;
+		Arrays.fill(nodes, null);
+		size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		WAVLTree.WAVLNode[] oldNodes = nodes;
+		allocate(capacity);
+		for (int j = 0; j < oldNodes.length; j++) {
+			if (oldNodes[j] == null)
+				continue;
+			int i = slot(oldKeys[j]);
+			while (nodes[i] != null)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			nodes[i] = oldNodes[j];
+		}
+	}
+}
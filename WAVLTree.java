@@ -1,3 +1,19 @@
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -10,10 +26,30 @@
 
 public class WAVLTree {
 
-	private final WAVLNode EXT = new WAVLNode(-1, null, null);
+	private static final WAVLNode EXT = new WAVLNode(-1, null, null);
+	private static final int UNION = 0;
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+	private static final int SEQUENTIAL_THRESHOLD = 1 << 12; //set operations smaller than this don't fork
+	private static final boolean LEFT = true; //rotation sides
+	private static final boolean RIGHT = false;
 	private WAVLNode root;
 	private WAVLNode max;
 	private WAVLNode min;
+	private int linkBalance; //rebalancing operations done by link, for the batch operations
+	private RebalanceListener listener; //null unless instrumentation is on
+	private RebalanceStats stats; //counters of the running insert/delete, null unless instrumentation is on
+	private boolean fingerSearch; //whether search and insert start near min, max or the finger
+	private WAVLNode finger; //the last node searched or inserted, null if unknown
+	private Augmentation<?>[] augmentations; //kept in every node's aggregates, null if there are none
+	private WAVLNodeIndex index; //key -> node of every item, null unless the hash index is on
+	private int capacity = Integer.MAX_VALUE; //most items kept in bounded mode, MAX_VALUE if unbounded
+	private boolean evictMin; //whether bounded mode evicts the smallest key (or else the largest)
+	private int maxDeferred; //most writes whose rebalancing may wait for catchUp, 0 unless relaxed balance is on
+	private int deferred; //writes whose rebalancing is waiting for catchUp
+	private WAVLNode pool; //deleted nodes kept for reuse by insert, chained through parent
+	private int pooled; //nodes in pool
+	private int maxPooled; //most nodes pool keeps, 0 unless node pooling is on
 	
 	
 	public WAVLTree() {
@@ -49,6 +85,12 @@ public class WAVLTree {
   {
       if(empty())
     	  return null;
+      if (index != null) {
+    	  WAVLNode node = index.get(k);
+    	  return node == null ? null : node.getValue();
+      }
+      if (fingerSearch)
+    	  return fingerSearch(k);
 	  WAVLNode current = root;
        while(current != EXT) {
     	   if(current.getKey() == k)
@@ -61,8 +103,57 @@ public class WAVLTree {
        return null;
   }
 
+  private String fingerSearch(int k) {
+	  WAVLNode current = fingerStart(k);
+	  while (true) {
+		  finger = current;
+		  if (current.getKey() == k)
+			  return current.getValue();
+		  WAVLNode next = current.getKey() > k ? current.getLeft() : current.getRight();
+		  if (next == EXT)
+			  return null;
+		  current = next;
+	  }
+  }
+
+  /**
+   * private WAVLNode fingerStart(int k)
+   *
+   * returns a node whose subtree holds k if k is in the tree, or the place k would be
+   * inserted at, starting from max or min if k is beyond them, and otherwise from the finger
+   * (or the nearer of min and max) and climbing until the subtree's key range holds k.
+   * this costs O(log d) for d items between the start and k, instead of O(log n) from the root.
+   * the tree must not be empty.
+   */
+  private WAVLNode fingerStart(int k) {
+	  if (k >= max.key)
+		  return max;
+	  if (k <= min.key)
+		  return min;
+	  WAVLNode x = finger;
+	  if (x == null)
+		  x = (long) k - min.key < (long) max.key - k ? min : max;
+	  if (k > x.key) {
+		  while (x.parent != EXT) { //climb to the first ancestor bounding k from above
+			  WAVLNode p = x.parent;
+			  if (p.left == x && p.key >= k)
+				  return p.key == k ? p : x;
+			  x = p;
+		  }
+	  }
+	  else if (k < x.key) {
+		  while (x.parent != EXT) { //climb to the first ancestor bounding k from below
+			  WAVLNode p = x.parent;
+			  if (p.right == x && p.key <= k)
+				  return p.key == k ? p : x;
+			  x = p;
+		  }
+	  }
+	  return x;
+  }
+
   
-  private WAVLNode singleRotation(WAVLNode current, String side) { 
+  private WAVLNode singleRotation(WAVLNode current, boolean side) { 
 	  WAVLNode x = current;
 	  WAVLNode z = x.parent;
 	  int tempSBS = x.subTreeSize; //saves temp subTreeSize for reordering
@@ -75,20 +166,19 @@ public class WAVLTree {
 	  x.parent = z.parent;
 	  x.subTreeSize = z.subTreeSize;
 	  
-	  switch(side) {
-	  case "right" :
+	  if (side == RIGHT) {
 		  z.left = x.right;
 		  z.subTreeSize = z.subTreeSize - tempSBS + x.right.subTreeSize; //fixes sub tree size
-		  x.right.parent = z; // pair "b", x right child to z
+		  if (x.right != EXT) //EXT is shared by every tree, never written
+			  x.right.parent = z; // pair "b", x right child to z
 		  x.right = z;
-		  break;
-	  case "left":
+	  }
+	  else {
 		  z.right = x.left;
 		  z.subTreeSize = z.subTreeSize - tempSBS + x.left.subTreeSize; //fixes sub tree size
-		  x.left.parent = z; // pair "b", x left child to z
+		  if (x.left != EXT)
+			  x.left.parent = z; // pair "b", x left child to z
 		  x.left = z;		  
-		  break;
-	  default: break;
 	  }
 	  z.parent = x;
 	  if (z.getRight() == EXT && z.getLeft() == EXT) {
@@ -97,6 +187,10 @@ public class WAVLTree {
 	  }
 	  else
 		  z.rank -= 1;
+	  if (augmentations != null) {
+		  augment(z);
+		  augment(x);
+	  }
 	  return z;
   }
   
@@ -107,28 +201,107 @@ public class WAVLTree {
    * the tree must remain valid (keep its invariants).
    * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
    * returns -1 if an item with key k already exists in the tree.
+   * in bounded mode (see setCapacity) also returns -1 if the tree is full and k is outside
+   * the retained window, and otherwise counts the eviction's rebalancing operations too.
    */
    public int insert(int k, String i) {
+	   if (stats == null)
+		   return insertBounded(k, i);
+	   stats.begin(RebalanceStats.INSERT);
+	   stats.result = insertBounded(k, i);
+	   listener.operationDone(stats);
+	   return stats.result;
+   }
+
+   /**
+    * private int insertBounded(int k, String i)
+    *
+    * inserts as insertItem, unless the tree is full: then k is rejected in O(1) if it isn't
+    * beyond the extreme that would be evicted, and otherwise that extreme is polled right
+    * after the insert.
+    */
+   private int insertBounded(int k, String i) {
+	   if (size() < capacity)
+		   return insertItem(k, i);
+	   if (evictMin ? k <= min.key : k >= max.key) //outside the window, or the extreme itself
+		   return -1;
+	   int countBalance = insertItem(k, i);
+	   if (countBalance == -1)
+		   return -1;
+	   WAVLNode evicted = evictMin ? min : max;
+	   countBalance += pollNode(evicted);
+	   release(evicted);
+	   return countBalance;
+   }
+
+   private WAVLNode newNode(int k, String i, WAVLNode parent) {
+	   WAVLNode node = pool;
+	   if (node == null)
+		   return new WAVLNode(k, i, parent);
+	   pool = node.parent;
+	   pooled--;
+	   node.reset(k, i, parent);
+	   return node;
+   }
+
+   /**
+    * private void release(WAVLNode node)
+    *
+    * keeps the just unlinked node for reuse by insert, if node pooling is on and
+    * the pool isn't full. its aggregates array, if any, is reused too.
+    */
+   private void release(WAVLNode node) {
+	   if (pooled >= maxPooled)
+		   return;
+	   node.value = null; //let the info be collected
+	   node.left = null;
+	   node.right = null;
+	   node.parent = pool;
+	   pool = node;
+	   pooled++;
+   }
+
+   private int insertItem(int k, String i) {
 	      if (empty()) {
-	    	  root = new WAVLNode(k, i, EXT);
+	    	  root = newNode(k, i, EXT);
+	    	  if (augmentations != null)
+	    		  augment(root);
 	    	  min = root;
 	    	  max = root;
+	    	  if (fingerSearch)
+	    		  finger = root;
+	    	  if (index != null)
+	    		  index.put(k, root);
 	    	  return 0;
 	      }
-          WAVLNode current = root;
+	      if (index != null && index.get(k) != null)
+	    	  return -1;
+          WAVLNode current = fingerSearch ? fingerStart(k) : root;
           while(true) {
+        	  if (stats != null)
+        		  stats.pathLength++;
         	  if(current.getKey() == k)
         		  return -1;
         	  else if(current.getKey() > k) {
         		  if(current.getLeft()!=EXT)
         			  current = current.getLeft();
         		  else {
-        			  current.left = new WAVLNode(k, i, current);
+        			  current.left = newNode(k, i, current);
         			  if(k < min.getKey()) //check if inserted is smaller than min
         				  min = current.left;
+        			  if (fingerSearch)
+        				  finger = current.left;
+        			  if (index != null)
+        				  index.put(k, current.left);
+        			  if (augmentations != null)
+        				  augment(current.left);
         			  WAVLNode temp = current;
         			  while (temp != EXT) {
         				  temp.subTreeSize++;
+        				  if (augmentations != null)
+        					  augment(temp);
+        				  if (stats != null)
+        					  stats.sizeUpdates++;
         				  temp = temp.parent;
         			  }
         			  break;
@@ -138,12 +311,22 @@ public class WAVLTree {
         		  if (current.getRight() != EXT)
         			  current = current.getRight();
         		  else {
-        			  current.right = new WAVLNode(k, i, current);
+        			  current.right = newNode(k, i, current);
         			  if (k > max.getKey())
         				  max = current.right; //check if k is larger then max, then update
+        			  if (fingerSearch)
+        				  finger = current.right;
+        			  if (index != null)
+        				  index.put(k, current.right);
+        			  if (augmentations != null)
+        				  augment(current.right);
         			  WAVLNode temp = current;
         			  while (temp != EXT) {
         				  temp.subTreeSize++;
+        				  if (augmentations != null)
+        					  augment(temp);
+        				  if (stats != null)
+        					  stats.sizeUpdates++;
         				  temp = temp.parent;
         			  }
         			  break;
@@ -153,36 +336,61 @@ public class WAVLTree {
          
          if(current.right != EXT && current.left != EXT) //if parent of inserted wasn't a leaf, no rebalancing needed.
         	 return 0;
+         if (maxDeferred > 0) //leave the rank diff of 0 for catchUp
+        	 return defer(current);
          //if parent was a leaf:
-         int countBalance = 1;
          current.rank += 1;
+         if (stats != null)
+        	 stats.promotions++;
+         return 1 + insertRebalance(current);
+         
+         // Update min/max
+   }
+
+   /**
+    * private int insertRebalance(WAVLNode current)
+    *
+    * fixes a rank diff of 0 between the just promoted node current and its parent,
+    * by promoting up the tree and doing at most one single or double rotation.
+    * returns the number of rebalancing operations done.
+    */
+   private int insertRebalance(WAVLNode current) {
+         int countBalance = 0;
          WAVLNode parent = current.parent;
          while(parent != EXT && parent.rank == current.rank) { //while promotion makes rank dif 0 
         	
         	 if(parent.rank - parent.right.rank == 2 || parent.rank - parent.left.rank == 2) { //if we can't promote parent because dif with other son will be > 2
         		 if(parent.right == current) {
         			 if(current.rank == current.left.rank + 2) { //inner child rank dif 2, do 1 rotation left
-        				 singleRotation(current, "left");
+        				 singleRotation(current, LEFT);
+        				 if (stats != null)
+        					 stats.singleRotations++;
         				 return 2 + countBalance;
         			 }
         			 else { //inner child rank diff 1, do double rotation- right, then left
         				 WAVLNode rotator = current.left; 
-        				 singleRotation(rotator, "right");
-        				 singleRotation(rotator, "left");
+        				 singleRotation(rotator, RIGHT);
+        				 singleRotation(rotator, LEFT);
         				 rotator.rank += 1; //promote the new top node
+        				 if (stats != null)
+        					 stats.doubleRotations++;
         				 return 5 + countBalance;
         			 }
         		 }
             	 else { //case 2: current is left child
             		 if(current.rank == current.right.rank + 2) { //inner child rank diff 2, do 1 rotation left
-        				 singleRotation(current, "right");
+        				 singleRotation(current, RIGHT);
+        				 if (stats != null)
+        					 stats.singleRotations++;
         				 return 2 + countBalance;
             		 }
         			 else { //inner child rank diff 1, do double rotation- right, then left
         				 WAVLNode rotator = current.right; 
-        				 singleRotation(rotator, "left");
-        				 singleRotation(rotator, "right");
+        				 singleRotation(rotator, LEFT);
+        				 singleRotation(rotator, RIGHT);
         				 rotator.rank += 1; //promote the new top node
+        				 if (stats != null)
+        					 stats.doubleRotations++;
         				 return 5 + countBalance;
         			 }
             	 } 
@@ -191,10 +399,10 @@ public class WAVLTree {
         	 current.rank += 1;
         	 parent = parent.parent;
         	 countBalance++;
+        	 if (stats != null)
+        		 stats.promotions++;
          }
          return countBalance;
-         
-         // Update min/max
    }
 
    /**
@@ -207,15 +415,38 @@ public class WAVLTree {
    */
    public int delete(int k)
    {
-           if (empty() || search(k) == null) //case: empty list or list doesn't conatin k
+	   if (stats == null)
+		   return deleteItem(k);
+	   stats.begin(RebalanceStats.DELETE);
+	   stats.result = deleteItem(k);
+	   listener.operationDone(stats);
+	   return stats.result;
+   }
+
+   private int deleteItem(int k)
+   {
+           WAVLNode found = null;
+           if (empty() || (index != null ? (found = index.get(k)) == null : search(k) == null)) //case: empty list or list doesn't conatin k
         	   return -1;
+           if (index != null)
+        	   index.remove(k);
            if (k == root.getKey() && root.getRight() == EXT && root.getLeft() == EXT) {
+        	   release(root);
         	   root = EXT;
+        	   finger = null;
         	   return 0;
            }
            WAVLNode current = root;
+           if (found != null) { //jump straight to the node and fix the subtree sizes above it
+        	   current = found;
+        	   shrinkAncestors(current);
+           }
            while (current.getKey() != k) {
         	   current.subTreeSize -= 1;
+        	   if (stats != null) {
+        		   stats.pathLength++;
+        		   stats.sizeUpdates++;
+        	   }
         	   if (current.getKey() > k) {
         		  current = current.getLeft();
         	   }
@@ -223,83 +454,127 @@ public class WAVLTree {
         		   current = current.getRight();
         	   }
            }
-           
+           if (current.getRight() != EXT && current.getLeft() != EXT) // binary node, deleteBinary releases its predecessor
+        	   return deleteNode(current);
+           int countBalance = deleteNode(current);
+           release(current);
+           return countBalance;
+   }
+
+   /**
+    * private int deleteNode(WAVLNode current)
+    *
+    * removes current from the tree, its ancestors' subtree sizes already lowered,
+    * and rebalances. the tree must hold more than current.
+    * returns the number of rebalancing operations.
+    */
+   private int deleteNode(WAVLNode current)
+   {
            int countBalance = 0;
     	   if (current == min)
     		   min = successor(current);
     	   if (current == max)
     		   max = predeccessor(current);
     	   WAVLNode parent = current.parent;
+           if (current.getRight() != EXT && current.getLeft() != EXT) { // binary node
+        	   return deleteBinary(current);
+           }
+           
     	   if (current.getRight() == EXT && current.getLeft() == EXT) { // if I'm a leaf   
         	   countBalance += deleteLeaf(current);
            }
     	   
-    	   else if (current.getRight() == EXT || current.getLeft() == EXT) { // If I'm Unary
+    	   else { // If I'm Unary
         	    deleteUnary(current);
     		    if (parent == EXT) // if all rank diffs are good
     			   return 0; 
     	   }
            
-           if (current.getRight() != EXT && current.getLeft() != EXT) { // binary node
-        	   countBalance += deleteBinary(current);
-           }
-           
-           countBalance += rebalance(parent);
+           if (augmentations != null)
+        	   augmentPath(parent);
+           countBalance += maxDeferred > 0 ? defer(parent) : rebalance(parent);
            
            return countBalance;
            
    }
    
+   private void shrinkAncestors(WAVLNode node) {
+	   for (WAVLNode temp = node.parent; temp != EXT; temp = temp.parent) {
+		   temp.subTreeSize -= 1;
+		   if (stats != null)
+			   stats.sizeUpdates++;
+	   }
+   }
+
+   /**
+    * public int rebalance(WAVLNode parent)
+    *
+    * fixes the rank diffs from parent up to the root after a delete and returns the
+    * number of rebalancing operations. it writes only inner nodes: a son it demotes,
+    * promotes or rotates is 1 below a parent of rank at least 2.
+    */
    public int rebalance(WAVLNode parent) {
 	   int delCase;
 	   int countBalance = 0;
 	   while (parent != EXT) {
-    	   //System.out.println("parent :" + parent.getKey());
     	   if ((delCase  = deleteCases(parent)) != 0) {
-    		   System.out.println("CASE :" + delCase);
         	   if (delCase == 1) {
         		   parent.rank -= 1;
         		   countBalance +=1;
+        		   if (stats != null)
+        			   stats.demotions++;
         	   }
         	   WAVLNode son;
-        	   String direction; //for single rotation
-        	   String sonDir; //for double rotation
+        	   boolean direction; //for single rotation
+        	   boolean sonDir; //for double rotation
         	   if (parent.rank - parent.right.rank == 1) {
         		   son = parent.right;
-        		   direction = "left";
-        		   sonDir = "right";
+        		   direction = LEFT;
+        		   sonDir = RIGHT;
         	   }
         	   else {
         		   son = parent.left;
-        		   direction = "right";
-        		   sonDir = "left";
+        		   direction = RIGHT;
+        		   sonDir = LEFT;
         	   }
         	   if (delCase == 2) { //double demote
         		   parent.rank -= 1;
         		   son.rank -= 1;
         		   countBalance += 2;
+        		   if (stats != null)
+        			   stats.doubleDemotions++;
         	   }
         	   if (delCase == 3) {
         		   son.rank += 1;
         		   parent = singleRotation(son, direction);
         		   countBalance += 3;
+        		   if (stats != null)
+        			   stats.singleRotations++;
         	   }
         	   if (delCase == 4) {
-        		   if(sonDir == "right") { //means that sons left side is to be double rotated
+        		   if(sonDir == RIGHT) { //means that sons left side is to be double rotated
         			   WAVLNode sonSon = son.left; 
         			   sonSon.rank += 1;
-        			   singleRotation(sonSon, "right");
+        			   singleRotation(sonSon, RIGHT);
         			   sonSon.rank += 1;
-        			  parent =  singleRotation(sonSon, "left");
+        			  parent =  singleRotation(sonSon, LEFT);
+        			   if (parent.getRight() != EXT || parent.getLeft() != EXT) //rotation only demoted z once
+        				   parent.rank -= 1;
         			   countBalance += 5;
+        			   if (stats != null)
+        				   stats.doubleRotations++;
         		    }
-        		    if(sonDir == "left") { //means that sons left side is to be double rotated
+        		    if(sonDir == LEFT) { //means that sons left side is to be double rotated
         			   WAVLNode sonSon = son.right; 
         			   sonSon.rank += 1;
-        			   singleRotation(sonSon, "left");
+        			   singleRotation(sonSon, LEFT);
         			   sonSon.rank += 1;
-        			  parent =  singleRotation(sonSon, "right");
+        			  parent =  singleRotation(sonSon, RIGHT);
+        			   if (parent.getRight() != EXT || parent.getLeft() != EXT) //rotation only demoted z once
+        				   parent.rank -= 1;
         			   countBalance += 5;
+        			   if (stats != null)
+        				   stats.doubleRotations++;
         		    }    
         	   }
     	   }
@@ -308,50 +583,53 @@ public class WAVLTree {
 	   return countBalance;
    }
    
+   /**
+    * public int deleteLeaf(WAVLNode current)
+    *
+    * unlinks the leaf current from its parent, or empties the tree if current is its root,
+    * and returns the number of demotions. throws IllegalArgumentException if current is
+    * not a leaf: the external node is shared by all trees and must never be written.
+    */
    public int deleteLeaf(WAVLNode current) {
+	   if (!current.isInnerNode() || current.left != EXT || current.right != EXT)
+		   throw new IllegalArgumentException("not a leaf");
 	   WAVLNode parent = current.parent;
+	   if (current == finger)
+		   finger = null;
+	   if (parent == EXT) { //a root has no parent to unlink from
+		   if (current == root)
+			   root = EXT;
+		   return 0;
+	   }
+	   current.parent = null;
+	   if (parent.getRight() == current) // if the right son is the one to be deleted
+		   parent.right = EXT;
+	   else
+		   parent.left = EXT;
 	   
-       if (parent.getRight() == EXT || parent.getLeft() == EXT) { // if father will be a leaf
+       if (parent.getRight() == EXT && parent.getLeft() == EXT) { // if father is now a 2,2 leaf
     	   parent.subTreeSize = 1;
     	   parent.rank = 0;
-    	   parent.right = EXT;
-    	   parent.left = EXT;
-    	   current.parent = null;
-    	   // We need to change ranks and STS up to the top
+    	   if (stats != null)
+    		   stats.demotions++;
+    	   // ranks above are fixed by rebalance
     	   return 1;
        }
-       else { // If father has another son
-    	   if (parent.getRight() == current) { // if the right son is the one to be deleted
-    		   current.parent = null;
-			   parent.right = EXT;
-    		   if (parent.getLeft().rank == 0) { // if brother is a leaf
-    			   int countBalance = rebalance(parent);
-    			   return countBalance;
-    		   }
-    		   else { // brother is not a leaf
-    			   parent.getLeft().rank++;
-    			   WAVLNode z = singleRotation(parent.getLeft(), "right");
-    			   return 3 + rebalance(z);
-    		   }
-    	   }
-    	   else { // if the left son is the one to be deleted
-    		   current.parent = null;
-			   parent.left = EXT;
-    		   if (parent.getRight().rank == 0) { // if brother is a leaf
-    			   rebalance(parent);
-    			   return 0;
-    		   }
-    		   else { // brother is not a leaf
-    			   parent.getRight().rank++;
-    			   WAVLNode z = singleRotation(parent.getRight(), "left");
-    			   return 3 + rebalance(z);
-    		   }
-    	   }
-       }
+       return 0; // if father has another son, rebalance handles the 3 rank diff
    }
 
+   /**
+    * public WAVLNode deleteUnary(WAVLNode current)
+    *
+    * hangs the only son of current on current's parent and returns the parent.
+    * throws IllegalArgumentException if current does not have exactly one son.
+    */
    public WAVLNode deleteUnary(WAVLNode current) {
+	   if (!current.isInnerNode() || (current.left == EXT) == (current.right == EXT))
+		   throw new IllegalArgumentException("not a unary node");
 	   WAVLNode parent = current.parent;
+	   if (current == finger)
+		   finger = null;
 	   if (current.getRight() != EXT) { // That means that the right son exists
 		   if (parent == EXT)
 			   root = current.getRight();
@@ -382,25 +660,44 @@ public class WAVLTree {
 	   return parent;
    }
    
+   /**
+    * public int deleteBinary(WAVLNode current)
+    *
+    * moves the predecessor's item into current, deletes the predecessor's node and
+    * rebalances. throws IllegalArgumentException if current does not have two sons.
+    */
    public int deleteBinary(WAVLNode current) {
+	   if (!current.isInnerNode() || current.left == EXT || current.right == EXT)
+		   throw new IllegalArgumentException("not a binary node");
 	   current.subTreeSize -= 1;
+	   if (stats != null)
+		   stats.sizeUpdates++;
 //	   current.rank -= 1;
 	   WAVLNode pred = predeccessor(current,true); //will dempte subtreesize on the way to finding predeccessor
 	   int p_key = pred.key;
 	   String p_value = pred.value;
 	   int countBalance = 0;
+	   if (pred == min) //pred's item moves into current
+		   min = current;
+	   WAVLNode parent = pred.parent;
 	   
 	   if (pred.getRight() == EXT && pred.getLeft() == EXT) { // if pred a leaf   
     	   countBalance = deleteLeaf(pred);
        }
 	   
-	   else if (pred.getRight() == EXT || pred.getLeft() == EXT) { // If pred Unary
+	   else { // If pred Unary
 		   deleteUnary(pred);		   
 	   }
 	     
 	   current.key = p_key;
 	   current.value = p_value;
+	   if (index != null)
+		   index.put(p_key, current); //pred's item now lives in current
 	   
+	   if (augmentations != null)
+		   augmentPath(parent);
+	   countBalance += maxDeferred > 0 ? defer(parent) : rebalance(parent);
+	   release(pred);
 	   return countBalance;
    }
    
@@ -465,6 +762,71 @@ public class WAVLTree {
            return null;
    }
 
+   /**
+    * public WAVLNode peekMin()
+    *
+    * Returns the node with the smallest key in O(1), or null if the tree is empty
+    */
+   public WAVLNode peekMin() {
+	   return empty() ? null : min;
+   }
+
+   /**
+    * public WAVLNode peekMax()
+    *
+    * Returns the node with the largest key in O(1), or null if the tree is empty
+    */
+   public WAVLNode peekMax() {
+	   return empty() ? null : max;
+   }
+
+   /**
+    * public WAVLNode pollMin()
+    *
+    * removes the item with the smallest key and returns its node (holding its key
+    * and info), or null if the tree is empty. Unlike delete(k) there is no search:
+    * the cached min node is at most unary, so it is unlinked in place, the subtree
+    * sizes are fixed on its parent chain, and min moves to its successor.
+    * Rebalancing and instrumentation are the same as delete's.
+    */
+   public WAVLNode pollMin() {
+	   return poll(min);
+   }
+
+   /**
+    * public WAVLNode pollMax()
+    *
+    * removes the item with the largest key and returns its node, as pollMin
+    */
+   public WAVLNode pollMax() {
+	   return poll(max);
+   }
+
+   private WAVLNode poll(WAVLNode node) {
+	   if (empty())
+		   return null;
+	   if (stats == null) {
+		   pollNode(node);
+		   return node;
+	   }
+	   stats.begin(RebalanceStats.DELETE);
+	   stats.result = pollNode(node);
+	   listener.operationDone(stats);
+	   return node;
+   }
+
+   private int pollNode(WAVLNode node) {
+	   if (index != null)
+		   index.remove(node.key);
+	   if (node == root && node.left == EXT && node.right == EXT) {
+		   root = EXT;
+		   finger = null;
+		   return 0;
+	   }
+	   shrinkAncestors(node);
+	   return deleteNode(node);
+   }
+
    /**
    * public int[] keysToArray()
    *
@@ -515,8 +877,13 @@ public class WAVLTree {
 	   if(x.getLeft() != EXT) {
 		   x = x.getLeft(); 
 		   while(x.getRight() != EXT) {
-			   if(demoteSubTreeSize) //if we are going to delete the pred in deleteBinary
+			   if(demoteSubTreeSize) { //if we are going to delete the pred in deleteBinary
 				   x.subTreeSize -= 1;
+				   if (stats != null) {
+					   stats.pathLength++;
+					   stats.sizeUpdates++;
+				   }
+			   }
 			   x =  x.getRight();
 		   }
 	   }
@@ -577,6 +944,242 @@ public class WAVLTree {
     	   return null;
 	   return root;
    }
+
+   /**
+    * public void setRebalanceListener(RebalanceListener listener)
+    *
+    * reports the promotions, demotions, rotations, path length and subtree size
+    * updates of every following insert and delete to listener, or stops
+    * counting if listener is null. Without a listener nothing is counted.
+    * catchUp, insertAll, deleteAll, join and split are reported once per call, as
+    * RebalanceStats.BULK (join on the new tree, before it is trimmed to capacity).
+    * The set operations rebalance in scratch trees and are not counted.
+    */
+   public void setRebalanceListener(RebalanceListener listener) {
+	   this.listener = listener;
+	   stats = listener == null ? null : new RebalanceStats();
+   }
+
+   /**
+    * public void setFingerSearch(boolean on)
+    *
+    * turns finger search on or off. When on, search and insert don't start at the root
+    * but at max or min if the key is beyond them, and otherwise at the finger (the node
+    * last searched or inserted) and climb from there only as far as needed, so keys that
+    * arrive nearly sorted or close to each other cost O(log d) for a distance of d items.
+    * (insert still walks up to the root to fix subtree sizes.)
+    */
+   public void setFingerSearch(boolean on) {
+	   fingerSearch = on;
+	   finger = null;
+   }
+
+   /**
+    * public WAVLNode getFinger()
+    *
+    * Returns the node finger search starts from, or null if there is none
+    */
+   public WAVLNode getFinger() {
+	   return finger;
+   }
+
+   /**
+    * public void setFinger(WAVLNode node)
+    *
+    * makes the next search or insert start from node, which must be in this tree
+    * (e.g. a node kept from getFinger or getRoot). has an effect only with finger search on.
+    */
+   public void setFinger(WAVLNode node) {
+	   finger = node;
+   }
+
+   /**
+    * public void setCapacity(int capacity, boolean evictMin)
+    *
+    * turns on bounded mode, for top-k and sliding "largest n" windows: the tree keeps at
+    * most capacity items, and an insert into a full tree evicts the smallest key if evictMin
+    * (keeping the largest ones) or the largest key otherwise, at the cached min or max node,
+    * as pollMin/pollMax do. A key that would be evicted right away is rejected before any
+    * descent. Items over the new capacity are evicted now, and insertAll trims its batch
+    * the same way afterwards. setCapacity(Integer.MAX_VALUE, false) turns bounded mode off.
+    */
+   public void setCapacity(int capacity, boolean evictMin) {
+	   if (capacity < 1)
+		   throw new IllegalArgumentException("capacity must be positive");
+	   this.capacity = capacity;
+	   this.evictMin = evictMin;
+	   trim();
+   }
+
+   /**
+    * public int getCapacity()
+    *
+    * Returns the most items the tree keeps, Integer.MAX_VALUE if it isn't bounded
+    */
+   public int getCapacity() {
+	   return capacity;
+   }
+
+   private void trim() {
+	   while (size() > capacity)
+		   poll(evictMin ? min : max);
+   }
+
+   /**
+    * public void setRelaxedBalance(int maxDeferred)
+    *
+    * turns relaxed balance on, for write bursts: insert and delete only place or unlink
+    * the node and fix the subtree sizes (and aggregates), and leave the promotions,
+    * demotions and rotations for a later catchUp(), marking the path from the spot to
+    * the root as dirty instead. Searches, select, rank, iteration and aggregates stay
+    * correct, as they only rely on the key order and the subtree sizes.
+    * Every deferred insert makes the tree at most one level higher, so the height stays
+    * below 2 log n + maxDeferred: the write that reaches maxDeferred catches up itself.
+    * maxDeferred 0 catches up and turns relaxed balance off.
+    * split, join, the batch and the set operations catch up before they start.
+    */
+   public void setRelaxedBalance(int maxDeferred) {
+	   if (maxDeferred < 0)
+		   throw new IllegalArgumentException("maxDeferred must not be negative");
+	   if (maxDeferred == 0)
+		   catchUp();
+	   this.maxDeferred = maxDeferred;
+   }
+
+   /**
+    * public int getDeferred()
+    *
+    * Returns the number of writes whose rebalancing is waiting for catchUp
+    */
+   public int getDeferred() {
+	   return deferred;
+   }
+
+   /**
+    * public int catchUp()
+    *
+    * does the rebalancing the deferred writes left behind, in O(d log n) for d deferred
+    * writes: the dirty part of the tree is walked bottom up, and every node whose rank diffs
+    * are off is relinked with its (by then valid) subtrees, as in join. Meant for the idle
+    * time between bursts, e.g. from a background thread holding the same lock as the writers.
+    * returns the number of rebalancing operations done.
+    */
+   public int catchUp() {
+	   if (deferred == 0)
+		   return 0;
+	   beginBulk();
+	   return bulkDone(repairDeferred());
+   }
+   private int repairDeferred() { //counted with the running insert, delete or bulk call
+	   if (deferred == 0)
+		   return 0;
+	   deferred = 0;
+	   if (empty())
+		   return 0;
+	   int start = linkBalance;
+	   WAVLNode x = root;
+	   while (true) {
+		   if (x.left.dirty) {
+			   x = x.left;
+			   continue;
+		   }
+		   if (x.right.dirty) {
+			   x = x.right;
+			   continue;
+		   }
+		   x.dirty = false; //both subtrees are valid now
+		   WAVLNode p = x.parent;
+		   boolean asLeft = p != EXT && p.left == x;
+		   WAVLNode top = repair(x);
+		   if (p == EXT) {
+			   root = top;
+			   return linkBalance - start;
+		   }
+		   if (asLeft)
+			   p.left = top;
+		   else
+			   p.right = top;
+		   top.parent = p;
+		   x = p;
+	   }
+   }
+
+   /**
+    * private WAVLNode repair(WAVLNode x)
+    *
+    * returns x if its rank diffs are valid, or else relinks x between its valid subtrees
+    * and returns the root of the result, detached. root is used as scratch by link.
+    */
+   private WAVLNode repair(WAVLNode x) {
+	   int leftDiff = x.rank - x.left.rank;
+	   int rightDiff = x.rank - x.right.rank;
+	   boolean leaf = x.left == EXT && x.right == EXT;
+	   if (leftDiff >= 1 && leftDiff <= 2 && rightDiff >= 1 && rightDiff <= 2 && (!leaf || x.rank == 0))
+		   return x;
+	   WAVLNode l = x.left;
+	   WAVLNode r = x.right;
+	   x.left = EXT;
+	   x.right = EXT;
+	   return link(l, x, r);
+   }
+
+   /**
+    * private int defer(WAVLNode node)
+    *
+    * marks node and its ancestors dirty for catchUp, which runs right away once
+    * maxDeferred writes are waiting. the dirty nodes always form a subtree at the root.
+    * returns the number of rebalancing operations done now.
+    */
+   private int defer(WAVLNode node) {
+	   for (WAVLNode x = node; x != EXT && !x.dirty; x = x.parent)
+		   x.dirty = true;
+	   return ++deferred < maxDeferred ? 0 : repairDeferred();
+   }
+
+   /**
+    * public void setNodePool(int maxPooled)
+    *
+    * turns node pooling on: delete keeps up to maxPooled unlinked nodes (including the
+    * predecessor deleteBinary drops, and nodes evicted in bounded mode) and insert reuses
+    * them, so a steady churn of inserts and deletes allocates nothing (without
+    * augmentations). Nodes got from the tree, e.g. from floor or getFinger, must not be
+    * used after their item is deleted, as they may come back with another item.
+    * pollMin/pollMax never pool the node they return. maxPooled 0 turns pooling off.
+    */
+   public void setNodePool(int maxPooled) {
+	   if (maxPooled < 0)
+		   throw new IllegalArgumentException("maxPooled must not be negative");
+	   this.maxPooled = maxPooled;
+	   while (pooled > maxPooled) {
+		   pool = pool.parent;
+		   pooled--;
+	   }
+   }
+
+   /**
+    * public void setHashIndex(boolean on)
+    *
+    * turns the hash index on or off. When on, every item's node is also kept in an
+    * open addressing int -> node table (see WAVLNodeIndex), so search is O(1), insert
+    * rejects an existing key in O(1), and delete jumps straight to the node and only
+    * walks up from it. Turning it on indexes the tree in O(n); it costs about 16 bytes
+    * per item. split, join and the set operations pass it on to the new tree, but then
+    * split and join re-key the items they move, so they are no longer O(log n).
+    */
+   public void setHashIndex(boolean on) {
+	   if (!on) {
+		   index = null;
+		   return;
+	   }
+	   if (index != null)
+		   return;
+	   index = new WAVLNodeIndex(size());
+	   WAVLNode x = min;
+	   for (int i = size(); i > 0; i--) {
+		   index.put(x.key, x);
+		   x = successor(x);
+	   }
+   }
      /**
     * public int select(int i)
     *
@@ -588,7 +1191,7 @@ public class WAVLTree {
     */   
    public String select(int i)
    {
-	   if (empty() || i > size())
+	   if (empty() || i < 1 || i > size())
 		   return null;
 	   if (i == 1)
 		   return min.getValue();
@@ -600,7 +1203,7 @@ public class WAVLTree {
 		   int s = current.getLeft().getSubtreeSize();
 		   if (s + 1 == i)
 			   return current.getValue();
-		   if (i < s)
+		   if (i <= s)
 	           current = current.getLeft();
 		   else {
 			   current = current.getRight();
@@ -612,11 +1215,1086 @@ public class WAVLTree {
 	   
    }
 
+   /**
+    * public WAVLNode floor(int k)
+    *
+    * Returns the node with the largest key smaller than or equal to k, or null if there is none
+    */
+   public WAVLNode floor(int k) {
+	   return floor(k, true);
+   }
+
+   /**
+    * public WAVLNode lower(int k)
+    *
+    * Returns the node with the largest key strictly smaller than k, or null if there is none
+    */
+   public WAVLNode lower(int k) {
+	   return floor(k, false);
+   }
+
+   /**
+    * public WAVLNode ceiling(int k)
+    *
+    * Returns the node with the smallest key larger than or equal to k, or null if there is none
+    */
+   public WAVLNode ceiling(int k) {
+	   return ceiling(k, true);
+   }
+
+   /**
+    * public WAVLNode higher(int k)
+    *
+    * Returns the node with the smallest key strictly larger than k, or null if there is none
+    */
+   public WAVLNode higher(int k) {
+	   return ceiling(k, false);
+   }
+
+   private WAVLNode floor(int k, boolean inclusive) {
+	   WAVLNode best = null;
+	   WAVLNode current = root;
+	   while (current != EXT) {
+		   if (current.key < k || (inclusive && current.key == k)) {
+			   best = current;
+			   current = current.right;
+		   }
+		   else
+			   current = current.left;
+	   }
+	   return best;
+   }
+
+   private WAVLNode ceiling(int k, boolean inclusive) {
+	   WAVLNode best = null;
+	   WAVLNode current = root;
+	   while (current != EXT) {
+		   if (current.key > k || (inclusive && current.key == k)) {
+			   best = current;
+			   current = current.left;
+		   }
+		   else
+			   current = current.right;
+	   }
+	   return best;
+   }
+
+   /**
+    * public int rank(int k)
+    *
+    * Returns the number of keys smaller than or equal to k, in O(log n) using the subtree sizes.
+    * if k is in the tree, this is its position: select(rank(k)) is the info of k.
+    */
+   public int rank(int k) {
+	   return countBelow(k, true);
+   }
+
+   /**
+    * public int countRange(int lo, int hi)
+    *
+    * Returns the number of keys in [lo, hi], in O(log n)
+    */
+   public int countRange(int lo, int hi) {
+	   if (lo > hi)
+		   return 0;
+	   return countBelow(hi, true) - countBelow(lo, false);
+   }
+
+   private int countBelow(int k, boolean inclusive) {
+	   int count = 0;
+	   WAVLNode current = root;
+	   while (current != EXT) {
+		   if (current.key < k || (inclusive && current.key == k)) {
+			   count += current.left.subTreeSize + 1;
+			   current = current.right;
+		   }
+		   else
+			   current = current.left;
+	   }
+	   return count;
+   }
+
+   /**
+    * public void addAugmentation(Augmentation<?> augmentation)
+    *
+    * makes the tree keep augmentation's aggregate in every node from now on, through
+    * insert, delete, rotations, split, join and the batch operations, so aggregate can
+    * answer range queries in O(log n). computing it for the existing items takes O(n).
+    * trees made by split, join and the set operations keep the augmentations of the
+    * (left) input they were made from.
+    */
+   public void addAugmentation(Augmentation<?> augmentation) {
+	   if (augmentations == null)
+		   augmentations = new Augmentation<?>[] {augmentation};
+	   else {
+		   augmentations = Arrays.copyOf(augmentations, augmentations.length + 1);
+		   augmentations[augmentations.length - 1] = augmentation;
+	   }
+	   augmentAll(root);
+   }
+
+   private void augmentAll(WAVLNode node) {
+	   if (node == EXT)
+		   return;
+	   augmentAll(node.left);
+	   augmentAll(node.right);
+	   augment(node);
+   }
+
+   /**
+    * public <A> A aggregate(Augmentation<A> augmentation, int lo, int hi)
+    *
+    * Returns the aggregate of augmentation over the items with keys in [lo, hi], in O(log n):
+    * whole subtrees hanging inside the range contribute their kept aggregates.
+    * augmentation must have been added to the tree with addAugmentation.
+    */
+   public <A> A aggregate(Augmentation<A> augmentation, int lo, int hi) {
+	   int j = 0;
+	   while (augmentations != null && j < augmentations.length && augmentations[j] != augmentation)
+		   j++;
+	   if (augmentations == null || j == augmentations.length)
+		   throw new IllegalArgumentException("augmentation was not added to this tree");
+	   A result = augmentation.identity();
+	   if (lo > hi)
+		   return result;
+	   WAVLNode split = root; //the highest node in the range
+	   while (split != EXT && (split.key < lo || split.key > hi))
+		   split = split.key < lo ? split.right : split.left;
+	   if (split == EXT)
+		   return result;
+	   for (WAVLNode n = split.left; n != EXT;) { //the keys >= lo in the left subtree, right to left
+		   if (n.key >= lo) {
+			   result = augmentation.combine(augmentation.combine(augmentation.lift(n.key, n.value), aggregateOf(n.right, j, augmentation)), result);
+			   n = n.left;
+		   }
+		   else
+			   n = n.right;
+	   }
+	   result = augmentation.combine(result, augmentation.lift(split.key, split.value));
+	   for (WAVLNode n = split.right; n != EXT;) { //the keys <= hi in the right subtree, left to right
+		   if (n.key <= hi) {
+			   result = augmentation.combine(result, augmentation.combine(aggregateOf(n.left, j, augmentation), augmentation.lift(n.key, n.value)));
+			   n = n.right;
+		   }
+		   else
+			   n = n.left;
+	   }
+	   return result;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <A> A aggregateOf(WAVLNode node, int j, Augmentation<A> augmentation) {
+	   return node == EXT ? augmentation.identity() : (A) node.aggregates[j];
+   }
+
+   /**
+    * private void augment(WAVLNode node)
+    *
+    * recomputes the aggregates of node from its item and its children's aggregates
+    */
+   @SuppressWarnings("unchecked")
+   private void augment(WAVLNode node) {
+	   if (node.aggregates == null || node.aggregates.length != augmentations.length)
+		   node.aggregates = new Object[augmentations.length];
+	   for (int j = 0; j < augmentations.length; j++) {
+		   Augmentation<Object> augmentation = (Augmentation<Object>) augmentations[j];
+		   Object aggregate = augmentation.lift(node.key, node.value);
+		   if (node.left != EXT)
+			   aggregate = augmentation.combine(node.left.aggregates[j], aggregate);
+		   if (node.right != EXT)
+			   aggregate = augmentation.combine(aggregate, node.right.aggregates[j]);
+		   node.aggregates[j] = aggregate;
+	   }
+   }
+
+   private void augmentPath(WAVLNode node) {
+	   for (; node != EXT; node = node.parent)
+		   augment(node);
+   }
+
+   /**
+    * public Cursor cursor(int lo, int hi)
+    *
+    * Returns a cursor over the items with keys in [lo, hi], in increasing key order.
+    * it starts at ceiling(lo) and walks with successor, so reading k items costs O(log n + k)
+    * and allocates nothing after the cursor itself (which can be reused with reset).
+    */
+   public Cursor cursor(int lo, int hi) {
+	   Cursor cursor = new Cursor();
+	   cursor.reset(lo, hi);
+	   return cursor;
+   }
+
+   /**
+    * public class Cursor
+    *
+    * a position in a range of the tree. the tree must not be changed while a cursor is in use.
+    * usage: for (Cursor c = tree.cursor(lo, hi); c.next();) use(c.getKey(), c.getValue());
+    */
+   public class Cursor {
+	   private WAVLNode current; //the item next() moved to, null before the first next() and at the end
+	   private WAVLNode next; //the item the following next() moves to, null at the end
+	   private int hi;
+
+	   private Cursor() {
+	   }
+
+	   /**
+	    * public void reset(int lo, int hi)
+	    *
+	    * moves the cursor to just before the smallest key in [lo, hi]
+	    */
+	   public void reset(int lo, int hi) {
+		   this.hi = hi;
+		   current = null;
+		   next = lo > hi ? null : ceiling(lo);
+	   }
+
+	   /**
+	    * public boolean next()
+	    *
+	    * moves to the next item in the range, returns false if there is none
+	    */
+	   public boolean next() {
+		   if (next == null || next.key > hi) {
+			   current = null;
+			   next = null;
+			   return false;
+		   }
+		   current = next;
+		   next = successor(current);
+		   return true;
+	   }
+
+	   public int getKey() {
+		   return current.getKey();
+	   }
+
+	   public String getValue() {
+		   return current.getValue();
+	   }
+   }
+
+   /**
+    * public FrozenWAVLTree freeze()
+    *
+    * Returns an immutable copy of the tree laid out in contiguous arrays for fast
+    * search, select, rank and range scans, in O(n). the tree itself is unchanged.
+    */
+   public FrozenWAVLTree freeze() {
+	   return new FrozenWAVLTree(keysToArray(), infoToArray());
+   }
+
+   /**
+    * public void writeTo(WritableByteChannel channel)
+    *
+    * writes the items in key order to channel as a compact snapshot (delta varint keys,
+    * length prefixed UTF-8 values, a CRC32C per block, see WAVLTreeSnapshot), streaming
+    * through one block sized direct buffer.
+    */
+   public void writeTo(WritableByteChannel channel) throws IOException {
+	   WAVLTreeSnapshot.write(this, channel);
+   }
+
+   /**
+    * public static WAVLTree readFrom(ReadableByteChannel channel)
+    *
+    * Returns the tree of a snapshot written by writeTo, built bottom up in O(n) while
+    * the blocks are read. throws StreamCorruptedException if a checksum doesn't match.
+    */
+   public static WAVLTree readFrom(ReadableByteChannel channel) throws IOException {
+	   return WAVLTreeSnapshot.read(channel);
+   }
+
+   /**
+    * public Spliterator<Map.Entry<Integer, String>> spliterator()
+    *
+    * Returns a spliterator over the items in key order. It knows its exact size from
+    * the subtree sizes (SIZED, SUBSIZED) and splits at subtree boundaries, so parallel
+    * streams divide the tree between cores without copying it into arrays first.
+    * the tree must not be changed while the spliterator is in use.
+    */
+   public Spliterator<Map.Entry<Integer, String>> spliterator() {
+	   return new EntrySpliterator(root, 0, size());
+   }
+
+   /**
+    * public Spliterator.OfInt keySpliterator()
+    *
+    * as spliterator, over the keys, without boxing them
+    */
+   public Spliterator.OfInt keySpliterator() {
+	   return new KeySpliterator(root, 0, size());
+   }
+
+   /**
+    * public Spliterator<String> valueSpliterator()
+    *
+    * as spliterator, over the info of the items in key order (ORDERED, but not SORTED)
+    */
+   public Spliterator<String> valueSpliterator() {
+	   return new ValueSpliterator(root, 0, size());
+   }
+
+   public Stream<Map.Entry<Integer, String>> stream() {
+	   return StreamSupport.stream(spliterator(), false);
+   }
+
+   public Stream<Map.Entry<Integer, String>> parallelStream() {
+	   return StreamSupport.stream(spliterator(), true);
+   }
+
+   public IntStream keyStream() {
+	   return StreamSupport.intStream(keySpliterator(), false);
+   }
+
+   public Stream<String> valueStream() {
+	   return StreamSupport.stream(valueSpliterator(), false);
+   }
+
+   /**
+    * private abstract class RangeSpliterator
+    *
+    * the items at in order positions [lo, hi) of the subtree of top. A split narrows top
+    * to the smallest subtree holding the range and splits at the position of its root
+    * if that leaves both parts at least a quarter of the range, otherwise in the middle.
+    * traversal finds the first node by its position and then walks with successor.
+    */
+   private abstract class RangeSpliterator {
+	   WAVLNode top;
+	   int lo;
+	   int hi;
+	   WAVLNode next; //the node at position lo, null until the first advance
+
+	   RangeSpliterator(WAVLNode top, int lo, int hi) {
+		   this.top = top;
+		   this.lo = lo;
+		   this.hi = hi;
+	   }
+
+	   /**
+	    * returns the position to split at, or -1 if the range is too small to split
+	    */
+	   int splitPoint() {
+		   if (hi - lo < 2)
+			   return -1;
+		   while (true) {
+			   int ls = top.left.subTreeSize;
+			   if (hi <= ls)
+				   top = top.left;
+			   else if (lo > ls) {
+				   top = top.right;
+				   lo -= ls + 1;
+				   hi -= ls + 1;
+			   }
+			   else
+				   break;
+		   }
+		   int ls = top.left.subTreeSize;
+		   int quarter = (hi - lo) / 4;
+		   if (ls - lo >= Math.max(1, quarter) && hi - ls >= Math.max(1, quarter))
+			   return ls;
+		   return (lo + hi) >>> 1;
+	   }
+
+	   /**
+	    * hands the positions [lo, mid) over to prefix and keeps [mid, hi)
+	    */
+	   <S extends RangeSpliterator> S handOff(S prefix, int mid) {
+		   prefix.next = next;
+		   lo = mid;
+		   next = null;
+		   return prefix;
+	   }
+
+	   /**
+	    * returns the node at position lo and moves past it, or null at the end
+	    */
+	   WAVLNode advance() {
+		   if (lo >= hi)
+			   return null;
+		   WAVLNode node = next;
+		   if (node == null) {
+			   node = top;
+			   int i = lo;
+			   while (true) {
+				   int ls = node.left.subTreeSize;
+				   if (i == ls)
+					   break;
+				   if (i < ls)
+					   node = node.left;
+				   else {
+					   i -= ls + 1;
+					   node = node.right;
+				   }
+			   }
+		   }
+		   lo++;
+		   next = lo < hi ? successor(node) : null;
+		   return node;
+	   }
+
+	   public long estimateSize() {
+		   return hi - lo;
+	   }
+   }
+
+   private class EntrySpliterator extends RangeSpliterator implements Spliterator<Map.Entry<Integer, String>> {
+	   EntrySpliterator(WAVLNode top, int lo, int hi) {
+		   super(top, lo, hi);
+	   }
+
+	   public boolean tryAdvance(Consumer<? super Map.Entry<Integer, String>> action) {
+		   WAVLNode node = advance();
+		   if (node == null)
+			   return false;
+		   action.accept(new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+		   return true;
+	   }
+
+	   public Spliterator<Map.Entry<Integer, String>> trySplit() {
+		   int mid = splitPoint();
+		   return mid < 0 ? null : handOff(new EntrySpliterator(top, lo, mid), mid);
+	   }
+
+	   public int characteristics() {
+		   return SIZED | SUBSIZED | SORTED | ORDERED | DISTINCT | NONNULL;
+	   }
+
+	   public Comparator<? super Map.Entry<Integer, String>> getComparator() {
+		   return Map.Entry.comparingByKey();
+	   }
+   }
+
+   private class KeySpliterator extends RangeSpliterator implements Spliterator.OfInt {
+	   KeySpliterator(WAVLNode top, int lo, int hi) {
+		   super(top, lo, hi);
+	   }
+
+	   public boolean tryAdvance(IntConsumer action) {
+		   WAVLNode node = advance();
+		   if (node == null)
+			   return false;
+		   action.accept(node.key);
+		   return true;
+	   }
+
+	   public Spliterator.OfInt trySplit() {
+		   int mid = splitPoint();
+		   return mid < 0 ? null : handOff(new KeySpliterator(top, lo, mid), mid);
+	   }
+
+	   public int characteristics() {
+		   return SIZED | SUBSIZED | SORTED | ORDERED | DISTINCT | NONNULL;
+	   }
+
+	   public Comparator<? super Integer> getComparator() {
+		   return null; //natural order
+	   }
+   }
+
+   private class ValueSpliterator extends RangeSpliterator implements Spliterator<String> {
+	   ValueSpliterator(WAVLNode top, int lo, int hi) {
+		   super(top, lo, hi);
+	   }
+
+	   public boolean tryAdvance(Consumer<? super String> action) {
+		   WAVLNode node = advance();
+		   if (node == null)
+			   return false;
+		   action.accept(node.value);
+		   return true;
+	   }
+
+	   public Spliterator<String> trySplit() {
+		   int mid = splitPoint();
+		   return mid < 0 ? null : handOff(new ValueSpliterator(top, lo, mid), mid);
+	   }
+
+	   public int characteristics() {
+		   return SIZED | SUBSIZED | ORDERED;
+	   }
+   }
+
+   /**
+    * public static WAVLTree fromSorted(int[] keys, String[] values)
+    *
+    * Returns a new tree holding keys[i] with info values[i], built bottom up in O(n)
+    * without going through insert. keys must be strictly increasing.
+    * The tree is perfectly balanced, so every node's rank is its height.
+    */
+   public static WAVLTree fromSorted(int[] keys, String[] values) {
+	   if (keys.length != values.length)
+		   throw new IllegalArgumentException("keys and values differ in length");
+	   for (int i = 1; i < keys.length; i++)
+		   if (keys[i - 1] >= keys[i])
+			   throw new IllegalArgumentException("keys are not strictly increasing at index " + i);
+	   WAVLTree tree = new WAVLTree();
+	   if (keys.length == 0)
+		   return tree;
+	   tree.root = tree.build(keys, values, 0, keys.length - 1, EXT);
+	   tree.min = tree.root;
+	   while (tree.min.left != EXT)
+		   tree.min = tree.min.left;
+	   tree.max = tree.root;
+	   while (tree.max.right != EXT)
+		   tree.max = tree.max.right;
+	   return tree;
+   }
+
+   /**
+    * public static WAVLTree fromSorted(Iterator<Map.Entry<Integer, String>> entries, int size)
+    *
+    * Same as fromSorted(int[], String[]), but reads the next size entries of a
+    * key ordered iterator (e.g. a stream's iterator) without copying them first.
+    */
+   public static WAVLTree fromSorted(Iterator<Map.Entry<Integer, String>> entries, int size) {
+	   if (size < 0)
+		   throw new IllegalArgumentException("size must not be negative");
+	   WAVLTree tree = new WAVLTree();
+	   if (size == 0)
+		   return tree;
+	   WAVLNode[] last = new WAVLNode[1]; //last node built so far, in key order
+	   tree.root = tree.build(entries, size, EXT, last);
+	   tree.max = last[0];
+	   tree.min = tree.root;
+	   while (tree.min.left != EXT)
+		   tree.min = tree.min.left;
+	   return tree;
+   }
+
+   private WAVLNode build(int[] keys, String[] values, int lo, int hi, WAVLNode parent) {
+	   if (lo > hi)
+		   return EXT;
+	   int mid = (lo + hi) >>> 1;
+	   WAVLNode node = new WAVLNode(keys[mid], values[mid], parent);
+	   node.left = build(keys, values, lo, mid - 1, node);
+	   node.right = build(keys, values, mid + 1, hi, node);
+	   node.rank = Math.max(node.left.rank, node.right.rank) + 1;
+	   node.subTreeSize = hi - lo + 1;
+	   if (augmentations != null)
+		   augment(node);
+	   if (index != null) //insertAll adds the batch's new nodes
+		   index.put(node.key, node);
+	   return node;
+   }
+
+   private WAVLNode build(Iterator<Map.Entry<Integer, String>> entries, int size, WAVLNode parent, WAVLNode[] last) {
+	   if (size == 0)
+		   return EXT;
+	   int leftSize = (size - 1) / 2;
+	   WAVLNode left = build(entries, leftSize, null, last);
+	   if (!entries.hasNext())
+		   throw new IllegalArgumentException("fewer entries than size");
+	   Map.Entry<Integer, String> entry = entries.next();
+	   int k = entry.getKey();
+	   if (last[0] != null && last[0].key >= k)
+		   throw new IllegalArgumentException("keys are not strictly increasing at key " + k);
+	   WAVLNode node = new WAVLNode(k, entry.getValue(), parent);
+	   last[0] = node;
+	   node.left = left;
+	   if (left != EXT)
+		   left.parent = node;
+	   node.right = build(entries, size - 1 - leftSize, node, last);
+	   node.rank = Math.max(node.left.rank, node.right.rank) + 1;
+	   node.subTreeSize = size;
+	   if (augmentations != null)
+		   augment(node);
+	   return node;
+   }
+
+   /**
+    * public static WAVLTree join(WAVLTree left, int k, String i, WAVLTree right)
+    *
+    * Returns a tree holding all items of left, the item (k, i) and all items of right,
+    * in O(|rank(left) - rank(right)| + 1) without the hash index, and in O(|right|)
+    * with it, as right's items are added to left's index one by one. All keys of left
+    * must be smaller than k and all keys of right larger than k. left and right are
+    * left empty. The new tree has left's settings (see copySettings); if right kept
+    * other augmentations than left its aggregates are recomputed, in O(|right|) too.
+    */
+   public static WAVLTree join(WAVLTree left, int k, String i, WAVLTree right) {
+	   if (left == right && !left.empty())
+		   throw new IllegalArgumentException("cannot join a tree with itself");
+	   left.catchUp();
+	   right.catchUp();
+	   if ((!left.empty() && left.max.key >= k) || (!right.empty() && right.min.key <= k))
+		   throw new IllegalArgumentException("keys of left must be smaller than " + k + " and keys of right larger");
+	   WAVLNode x = new WAVLNode(k, i, EXT);
+	   WAVLTree tree = new WAVLTree();
+	   tree.copySettings(left);
+	   if (tree.augmentations != null && !Arrays.equals(tree.augmentations, right.augmentations))
+		   tree.augmentAll(right.root); //right's aggregates are of other augmentations
+	   if (left.index != null) { //left's entries stay valid, x and right's items join them
+		   tree.index = left.index;
+		   left.index = new WAVLNodeIndex(0);
+		   tree.index.put(k, x);
+		   WAVLNode y = right.min;
+		   for (int j = right.size(); j > 0; j--) {
+			   tree.index.put(y.key, y);
+			   y = right.successor(y);
+		   }
+	   }
+	   tree.beginBulk();
+	   tree.setRoot(tree.link(left.root, x, right.root));
+	   tree.bulkDone(tree.linkBalance);
+	   left.clear();
+	   right.clear();
+	   tree.trim();
+	   return tree;
+   }
+
+   /**
+    * public WAVLTree split(int k)
+    *
+    * Removes all items with keys larger than k from the tree and returns them as a
+    * new tree, in O(log n) without the hash index, and in O(log n + m) with it, as the
+    * m moved items are re-keyed into the new tree's index one by one. Items with keys
+    * smaller or equal to k stay. The new tree has this tree's settings (see copySettings).
+    */
+   public WAVLTree split(int k) {
+	   WAVLTree larger = new WAVLTree();
+	   larger.copySettings(this);
+	   if (index != null)
+		   larger.index = new WAVLNodeIndex(0);
+	   if (empty())
+		   return larger;
+	   beginBulk();
+	   repairDeferred();
+	   linkBalance = 0;
+	   WAVLNode[] parts = split(root, k);
+	   larger.setRoot(parts[2]);
+	   if (index != null) { //move the larger items' entries over, in O(size of larger)
+		   WAVLNode x = larger.min;
+		   for (int i = larger.size(); i > 0; i--) {
+			   index.remove(x.key);
+			   larger.index.put(x.key, x);
+			   x = larger.successor(x);
+		   }
+	   }
+	   setRoot(parts[1] == null ? parts[0] : link(parts[0], parts[1], EXT));
+	   bulkDone(linkBalance);
+	   return larger;
+   }
+
+   /**
+    * public int insertAll(int[] keys, String[] values, int[] status)
+    *
+    * inserts the items (keys[j], values[j]) in one pass: the batch is sorted and merged
+    * into the tree top down, so every node on the shared paths is visited, and has its
+    * subtree size fixed, once per batch. O(m log(n/m + 1)) for a batch of m keys.
+    * if status isn't null, status[j] is set to -1 if keys[j] was already in the tree
+    * (or earlier in the batch), and to 0 otherwise.
+    * returns the total number of rebalancing operations of the batch.
+    */
+   public int insertAll(int[] keys, String[] values, int[] status) {
+	   if (keys.length != values.length)
+		   throw new IllegalArgumentException("keys and values differ in length");
+	   int[] order = sortedOrder(keys);
+	   int[] sortedKeys = new int[keys.length];
+	   String[] sortedValues = new String[keys.length];
+	   int[] index = new int[keys.length];
+	   int m = 0;
+	   for (int o : order) {
+		   if (m > 0 && sortedKeys[m - 1] == keys[o]) { //same key earlier in the batch
+			   if (status != null)
+				   status[o] = -1;
+			   continue;
+		   }
+		   if (status != null)
+			   status[o] = 0;
+		   sortedKeys[m] = keys[o];
+		   sortedValues[m] = values[o];
+		   index[m++] = o;
+	   }
+	   beginBulk();
+	   repairDeferred();
+	   linkBalance = 0;
+	   setRoot(insertBatch(root, sortedKeys, sortedValues, index, 0, m - 1, status));
+	   int result = bulkDone(linkBalance);
+	   trim();
+	   return result;
+   }
+
+   /**
+    * public int deleteAll(int[] keys, int[] status)
+    *
+    * deletes the items with the given keys in one pass, like insertAll.
+    * if status isn't null, status[j] is set to -1 if keys[j] was not in the tree
+    * (or was already deleted earlier in the batch), and to 0 otherwise.
+    * returns the total number of rebalancing operations of the batch.
+    */
+   public int deleteAll(int[] keys, int[] status) {
+	   int[] order = sortedOrder(keys);
+	   int[] sortedKeys = new int[keys.length];
+	   int[] index = new int[keys.length];
+	   int m = 0;
+	   for (int o : order) {
+		   if (status != null)
+			   status[o] = -1; //until found in the tree
+		   if (m > 0 && sortedKeys[m - 1] == keys[o])
+			   continue;
+		   sortedKeys[m] = keys[o];
+		   index[m++] = o;
+	   }
+	   beginBulk();
+	   repairDeferred();
+	   linkBalance = 0;
+	   setRoot(deleteBatch(root, sortedKeys, index, 0, m - 1, status));
+	   return bulkDone(linkBalance);
+   }
+
+   private void beginBulk() {
+	   if (stats != null)
+		   stats.begin(RebalanceStats.BULK);
+   }
+   private int bulkDone(int result) {
+	   if (stats != null) {
+		   stats.result = result;
+		   listener.operationDone(stats);
+	   }
+	   return result;
+   }
+
+   /**
+    * private static int[] sortedOrder(int[] keys)
+    *
+    * returns the indices of keys sorted by key, equal keys by index
+    */
+   private static int[] sortedOrder(int[] keys) {
+	   long[] packed = new long[keys.length];
+	   for (int j = 0; j < keys.length; j++)
+		   packed[j] = ((long) keys[j] << 32) | j;
+	   Arrays.sort(packed);
+	   int[] order = new int[keys.length];
+	   for (int j = 0; j < keys.length; j++)
+		   order[j] = (int) packed[j];
+	   return order;
+   }
+
+   private static int lowerBound(int[] keys, int lo, int hi, int k) {
+	   hi++;
+	   while (lo < hi) {
+		   int mid = (lo + hi) >>> 1;
+		   if (keys[mid] < k)
+			   lo = mid + 1;
+		   else
+			   hi = mid;
+	   }
+	   return lo;
+   }
+
+   /**
+    * private WAVLNode insertBatch(WAVLNode node, ...)
+    *
+    * merges the sorted keys[lo..hi] into the subtree of node and returns its new root.
+    * the batch is split by node's key, each side is merged into its child, and node is
+    * linked back between them only if a side changed.
+    */
+   private WAVLNode insertBatch(WAVLNode node, int[] keys, String[] values, int[] index, int lo, int hi, int[] status) {
+	   if (lo > hi)
+		   return node;
+	   if (node == EXT)
+		   return build(keys, values, lo, hi, EXT);
+	   int p = lowerBound(keys, lo, hi, node.key);
+	   boolean found = p <= hi && keys[p] == node.key;
+	   if (found && status != null)
+		   status[index[p]] = -1;
+	   WAVLNode l = node.left;
+	   WAVLNode r = node.right;
+	   int leftSize = l.subTreeSize;
+	   int rightSize = r.subTreeSize;
+	   WAVLNode newLeft = insertBatch(l, keys, values, index, lo, p - 1, status);
+	   WAVLNode newRight = insertBatch(r, keys, values, index, found ? p + 1 : p, hi, status);
+	   if (newLeft == l && newRight == r && l.subTreeSize == leftSize && r.subTreeSize == rightSize)
+		   return node;
+	   return link(newLeft, node, newRight);
+   }
+
+   /**
+    * private WAVLNode deleteBatch(WAVLNode node, ...)
+    *
+    * removes the sorted keys[lo..hi] from the subtree of node and returns its new root.
+    */
+   private WAVLNode deleteBatch(WAVLNode node, int[] keys, int[] index, int lo, int hi, int[] status) {
+	   if (lo > hi || node == EXT)
+		   return node;
+	   int p = lowerBound(keys, lo, hi, node.key);
+	   boolean found = p <= hi && keys[p] == node.key;
+	   WAVLNode l = node.left;
+	   WAVLNode r = node.right;
+	   int leftSize = l.subTreeSize;
+	   int rightSize = r.subTreeSize;
+	   WAVLNode newLeft = deleteBatch(l, keys, index, lo, p - 1, status);
+	   WAVLNode newRight = deleteBatch(r, keys, index, found ? p + 1 : p, hi, status);
+	   if (found) {
+		   if (status != null)
+			   status[index[p]] = 0;
+		   if (this.index != null)
+			   this.index.remove(node.key);
+		   return concat(newLeft, newRight);
+	   }
+	   if (newLeft == l && newRight == r && l.subTreeSize == leftSize && r.subTreeSize == rightSize)
+		   return node;
+	   return link(newLeft, node, newRight);
+   }
+
+   /**
+    * public static WAVLTree union(WAVLTree a, WAVLTree b)
+    *
+    * Returns a tree with the items of both a and b (the info of a wins on equal keys),
+    * computed by divide and conquer over the common ForkJoinPool in
+    * O(m log(n/m + 1)) work, m <= n being the sizes. a and b are left empty.
+    * The result has a's settings (see copySettings). With the hash index on, the
+    * result is indexed again in O(n), and if b kept other augmentations than a its
+    * aggregates are recomputed, in O(|b|).
+    */
+   public static WAVLTree union(WAVLTree a, WAVLTree b) {
+	   return setOperation(UNION, a, b);
+   }
+
+   /**
+    * public static WAVLTree intersection(WAVLTree a, WAVLTree b)
+    *
+    * Returns a tree with the items of a whose keys are also in b, computed like union.
+    * a and b are left empty, the result has a's settings.
+    */
+   public static WAVLTree intersection(WAVLTree a, WAVLTree b) {
+	   return setOperation(INTERSECTION, a, b);
+   }
+
+   /**
+    * public static WAVLTree difference(WAVLTree a, WAVLTree b)
+    *
+    * Returns a tree with the items of a whose keys are not in b, computed like union.
+    * a and b are left empty, the result has a's settings.
+    */
+   public static WAVLTree difference(WAVLTree a, WAVLTree b) {
+	   return setOperation(DIFFERENCE, a, b);
+   }
+
+   private static WAVLTree setOperation(int op, WAVLTree a, WAVLTree b) {
+	   if (a == b && !a.empty())
+		   throw new IllegalArgumentException("cannot combine a tree with itself");
+	   a.catchUp();
+	   b.catchUp();
+	   WAVLTree tree = new WAVLTree();
+	   tree.copySettings(a);
+	   if (tree.augmentations != null && !Arrays.equals(tree.augmentations, b.augmentations))
+		   tree.augmentAll(b.root); //b's aggregates are of other augmentations
+	   tree.setRoot(ForkJoinPool.commonPool().invoke(new SetOperation(op, a.root, b.root, tree.augmentations)));
+	   a.clear();
+	   b.clear();
+	   if (a.index != null)
+		   tree.setHashIndex(true);
+	   tree.trim();
+	   return tree;
+   }
+
+   /**
+    * private static class SetOperation
+    *
+    * union, intersection or difference of two detached subtrees. splits one subtree by
+    * the other's root key, solves both sides in parallel and links the results.
+    * the nodes of both subtrees are reused or dropped.
+    */
+   private static class SetOperation extends RecursiveTask<WAVLNode> {
+	   private static final long serialVersionUID = 1L; //ForkJoinTask is Serializable, never serialized here
+	   private final int op;
+	   private final WAVLNode a;
+	   private final WAVLNode b;
+	   private final Augmentation<?>[] augmentations; //of the result tree, kept through the links
+
+	   SetOperation(int op, WAVLNode a, WAVLNode b, Augmentation<?>[] augmentations) {
+		   this.op = op;
+		   this.a = a;
+		   this.b = b;
+		   this.augmentations = augmentations;
+	   }
+
+	   @Override
+	   protected WAVLNode compute() {
+		   if (a == EXT)
+			   return op == UNION ? b : EXT;
+		   if (b == EXT)
+			   return op == INTERSECTION ? EXT : a;
+		   WAVLTree scratch = new WAVLTree(); //holds the root while linking
+		   scratch.augmentations = augmentations;
+		   WAVLNode pivot = op == DIFFERENCE ? b : a; //splits the other tree by the pivot's key
+		   WAVLNode[] parts = scratch.split(op == DIFFERENCE ? a : b, pivot.key);
+		   WAVLNode pivotLeft = pivot.left;
+		   WAVLNode pivotRight = pivot.right;
+		   SetOperation left = new SetOperation(op, op == DIFFERENCE ? parts[0] : pivotLeft, op == DIFFERENCE ? pivotLeft : parts[0], augmentations);
+		   SetOperation right = new SetOperation(op, op == DIFFERENCE ? parts[2] : pivotRight, op == DIFFERENCE ? pivotRight : parts[2], augmentations);
+		   WAVLNode l, r;
+		   if (a.subTreeSize + b.subTreeSize > SEQUENTIAL_THRESHOLD) {
+			   left.fork();
+			   r = right.compute();
+			   l = left.join();
+		   }
+		   else {
+			   l = left.compute();
+			   r = right.compute();
+		   }
+		   if (op == UNION || (op == INTERSECTION && parts[1] != null))
+			   return scratch.link(l, pivot, r);
+		   return scratch.concat(l, r);
+	   }
+   }
+
+   /**
+    * private WAVLNode[] split(WAVLNode node, int k)
+    *
+    * splits the detached subtree of node into {keys < k, node with key k or null, keys > k}.
+    */
+   private WAVLNode[] split(WAVLNode node, int k) {
+	   if (node == EXT)
+		   return new WAVLNode[] {EXT, null, EXT};
+	   WAVLNode l = node.left;
+	   WAVLNode r = node.right;
+	   WAVLNode[] parts;
+	   if (node.key == k) {
+		   if (l != EXT)
+			   l.parent = EXT;
+		   if (r != EXT)
+			   r.parent = EXT;
+		   return new WAVLNode[] {l, node, r};
+	   }
+	   if (k < node.key) {
+		   parts = split(l, k);
+		   parts[2] = link(parts[2], node, r);
+	   }
+	   else {
+		   parts = split(r, k);
+		   parts[0] = link(l, node, parts[0]);
+	   }
+	   return parts;
+   }
+
+   /**
+    * private WAVLNode concat(WAVLNode l, WAVLNode r)
+    *
+    * joins two detached subtrees, all keys of l smaller than those of r,
+    * using the maximum of l as the pivot.
+    */
+   private WAVLNode concat(WAVLNode l, WAVLNode r) {
+	   if (l == EXT)
+		   return r;
+	   if (r == EXT)
+		   return l;
+	   WAVLNode m = l;
+	   while (m.right != EXT)
+		   m = m.right;
+	   WAVLNode[] parts = split(l, m.key);
+	   return link(parts[0], parts[1], r);
+   }
+
+   /**
+    * private WAVLNode link(WAVLNode l, WAVLNode x, WAVLNode r)
+    *
+    * joins the detached subtrees l and r with the detached node x between them
+    * and returns the new root. x is hung on the spine of the higher ranked tree
+    * where the ranks meet, then insertRebalance fixes a possible rank diff of 0.
+    * root is used as scratch while rotating, and the rebalancing operations
+    * are added to linkBalance.
+    */
+   private WAVLNode link(WAVLNode l, WAVLNode x, WAVLNode r) {
+	   if (l != EXT)
+		   l.parent = EXT;
+	   if (r != EXT)
+		   r.parent = EXT;
+	   WAVLNode p = EXT;
+	   WAVLNode c;
+	   if (l.rank >= r.rank) { //go down the right spine of l
+		   c = l;
+		   while (c.rank > r.rank + 1) {
+			   p = c;
+			   c = c.right;
+		   }
+		   x.left = c;
+		   x.right = r;
+		   if (p != EXT)
+			   p.right = x;
+		   root = p == EXT ? x : l;
+	   }
+	   else { //go down the left spine of r
+		   c = r;
+		   while (c.rank > l.rank + 1) {
+			   p = c;
+			   c = c.left;
+		   }
+		   x.left = l;
+		   x.right = c;
+		   if (p != EXT)
+			   p.left = x;
+		   root = p == EXT ? x : r;
+	   }
+	   x.parent = p;
+	   if (x.left != EXT)
+		   x.left.parent = x;
+	   if (x.right != EXT)
+		   x.right.parent = x;
+	   x.rank = Math.max(x.left.rank, x.right.rank) + 1;
+	   x.subTreeSize = x.left.subTreeSize + x.right.subTreeSize + 1;
+	   if (augmentations != null)
+		   augment(x);
+	   int added = x.subTreeSize - c.subTreeSize;
+	   for (WAVLNode temp = p; temp != EXT; temp = temp.parent) {
+		   temp.subTreeSize += added;
+		   if (augmentations != null)
+			   augment(temp);
+	   }
+	   linkBalance += insertRebalance(x);
+	   return root;
+   }
+
+   private void setRoot(WAVLNode node) {
+	   root = node;
+	   finger = null; //may have moved to another tree
+	   if (node == EXT) {
+		   min = null;
+		   max = null;
+		   return;
+	   }
+	   node.parent = EXT;
+	   min = node;
+	   while (min.left != EXT)
+		   min = min.left;
+	   max = node;
+	   while (max.right != EXT)
+		   max = max.right;
+   }
+
+   /**
+    * private void copySettings(WAVLTree from)
+    *
+    * gives this new tree the settings of from: the rebalance listener, finger search,
+    * bounded mode, relaxed balance, node pooling (starting with an empty pool) and the
+    * augmentations. the hash index is left to the caller, which knows what it can reuse.
+    */
+   private void copySettings(WAVLTree from) {
+	   if (from.listener != null)
+		   setRebalanceListener(from.listener);
+	   fingerSearch = from.fingerSearch;
+	   capacity = from.capacity;
+	   evictMin = from.evictMin;
+	   maxDeferred = from.maxDeferred;
+	   maxPooled = from.maxPooled;
+	   augmentations = from.augmentations;
+   }
+
+   private void clear() {
+	   setRoot(EXT);
+	   if (index != null)
+		   index.clear();
+	   deferred = 0;
+   }
+
    /**
    * public class WAVLNode
    * @inv 0<(this.parent.rank-this.rank)<3 
    */
-  public class WAVLNode{
+  public static class WAVLNode{
                 private int key;
                 private String value;
                 public int rank;
@@ -624,8 +2302,19 @@ public class WAVLTree {
                 public WAVLNode left;
                 public WAVLNode right;
                 public int subTreeSize;
+                private Object[] aggregates; //one per augmentation of the tree, null if there are none
+                private boolean dirty; //whether the subtree may hold rank diffs left for catchUp
              
 	  			public WAVLNode (int key, String value, WAVLNode parent) {
+	  				reset(key, value, parent);
+	  			}
+
+	  			/**
+	  			 * private void reset(int key, String value, WAVLNode parent)
+	  			 *
+	  			 * makes the node a fresh leaf, for the constructor and for reusing pooled nodes
+	  			 */
+	  			private void reset(int key, String value, WAVLNode parent) {
 	  				this.key = key;
 	  				this.value = value;
 	  				if(key==-1) {  //iff external node rank is -1
@@ -639,6 +2328,7 @@ public class WAVLTree {
 	  				this.parent = parent;
 	  				left = EXT;
 	  				right = EXT;
+	  				dirty = false;
 	  			}
 	  			
 	  			public WAVLNode getParent() {
@@ -0,0 +1,232 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ *
+ * WAVLTreeSnapshot
+ *
+ * The binary snapshot format of WAVLTree.writeTo and WAVLTree.readFrom.
+ *
+ * header: magic "WAVS", version, item count (3 big endian ints)
+ * blocks: payload length, item count (2 ints), payload, CRC32C of the payload (int)
+ * payload: per item in key order
+ *   key: varint of the zigzag key for the first item, of (key - previous key - 1) after it
+ *   value: varint of (UTF-8 length + 1), 0 for null, then the UTF-8 bytes
+ *
+ * Both directions stream through one direct buffer of about a block, so neither
+ * holds anything of the size of the tree besides the tree itself, and loading
+ * builds the tree bottom up in O(n) with WAVLTree.fromSorted.
+ *
+ */
+
+class WAVLTreeSnapshot {
+
+	private static final int MAGIC = 0x57415653; //"WAVS"
+	private static final int VERSION = 1;
+	private static final int BLOCK_SIZE = 1 << 16; //payload bytes per block, unless a single item is larger
+	private static final int FRAME = 8; //payload length and item count
+	private static final int CHECKSUM = 4;
+	private static final int MAX_VARINT = 10;
+
+
+	private WAVLTreeSnapshot() {
+	}
+
+	static void write(WAVLTree tree, WritableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME + BLOCK_SIZE + CHECKSUM);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(tree.size());
+		buffer.flip();
+		writeFully(channel, buffer);
+
+		CRC32C crc = new CRC32C();
+		buffer.clear().position(FRAME);
+		int count = 0;
+		long previous = 0;
+		boolean first = true;
+		for (WAVLTree.WAVLNode x = tree.ceiling(Integer.MIN_VALUE); x != null; x = tree.successor(x)) {
+			String value = x.getValue();
+			byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+			int need = 2 * MAX_VARINT + (bytes == null ? 0 : bytes.length);
+			if (buffer.remaining() - CHECKSUM < need) {
+				if (count > 0)
+					flushBlock(channel, buffer, count, crc);
+				count = 0;
+				if (buffer.remaining() - CHECKSUM < need) { //a single item larger than a block
+					buffer = ByteBuffer.allocateDirect(FRAME + need + CHECKSUM);
+					buffer.position(FRAME);
+				}
+			}
+			long key = x.getKey();
+			putVarLong(buffer, first ? (key << 1) ^ (key >> 63) : key - previous - 1);
+			putVarLong(buffer, bytes == null ? 0 : bytes.length + 1L);
+			if (bytes != null)
+				buffer.put(bytes);
+			previous = key;
+			first = false;
+			count++;
+		}
+		if (count > 0)
+			flushBlock(channel, buffer, count, crc);
+	}
+
+	private static void flushBlock(WritableByteChannel channel, ByteBuffer buffer, int count, CRC32C crc) throws IOException {
+		int length = buffer.position() - FRAME;
+		buffer.putInt(0, length);
+		buffer.putInt(4, count);
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(FRAME).limit(FRAME + length);
+		crc.reset();
+		crc.update(payload);
+		buffer.putInt((int) crc.getValue());
+		buffer.flip();
+		writeFully(channel, buffer);
+		buffer.clear().position(FRAME);
+	}
+
+	static WAVLTree read(ReadableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(12);
+		readFully(channel, header);
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new StreamCorruptedException("not a WAVLTree snapshot");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new StreamCorruptedException("unsupported snapshot version " + version);
+		int size = header.getInt();
+		if (size < 0)
+			throw new StreamCorruptedException("negative item count " + size);
+		try {
+			return WAVLTree.fromSorted(new Reader(channel, size), size);
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		catch (IllegalArgumentException e) { //keys out of order
+			throw new StreamCorruptedException(e.getMessage());
+		}
+	}
+
+	/**
+	 * private static class Reader
+	 *
+	 * decodes the items of a snapshot block by block, checking each block's checksum
+	 * before decoding it. I/O errors are rethrown unchecked and unwrapped by read.
+	 */
+	private static class Reader implements Iterator<Map.Entry<Integer, String>> {
+		private final ReadableByteChannel channel;
+		private final int size;
+		private final CRC32C crc = new CRC32C();
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME + BLOCK_SIZE + CHECKSUM);
+		private byte[] bytes = new byte[256]; //reused for decoding values
+		private int read; //items returned so far
+		private int left; //items left in the current block
+		private int blocks;
+		private long previous;
+
+		Reader(ReadableByteChannel channel, int size) {
+			this.channel = channel;
+			this.size = size;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read < size;
+		}
+
+		@Override
+		public Map.Entry<Integer, String> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			try {
+				if (left == 0)
+					nextBlock();
+				long key = getVarLong(buffer);
+				key = read == 0 ? (key >>> 1) ^ -(key & 1) : previous + key + 1;
+				if (key > Integer.MAX_VALUE || key < Integer.MIN_VALUE)
+					throw new StreamCorruptedException("key out of range in block " + blocks);
+				long length = getVarLong(buffer) - 1;
+				String value = null;
+				if (length >= 0) {
+					if (length > buffer.remaining())
+						throw new StreamCorruptedException("value overruns block " + blocks);
+					if (bytes.length < length)
+						bytes = new byte[(int) Math.max(length, 2L * bytes.length)];
+					buffer.get(bytes, 0, (int) length);
+					value = new String(bytes, 0, (int) length, StandardCharsets.UTF_8);
+				}
+				previous = key;
+				read++;
+				left--;
+				return new AbstractMap.SimpleImmutableEntry<>((int) key, value);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void nextBlock() throws IOException {
+			blocks++;
+			buffer.clear().limit(FRAME);
+			readFully(channel, buffer);
+			int length = buffer.getInt(0);
+			left = buffer.getInt(4);
+			if (length < 0 || left <= 0)
+				throw new StreamCorruptedException("bad frame of block " + blocks);
+			if (buffer.capacity() < length + CHECKSUM)
+				buffer = ByteBuffer.allocateDirect(length + CHECKSUM);
+			buffer.clear().limit(length + CHECKSUM);
+			readFully(channel, buffer);
+			buffer.flip();
+			int checksum = buffer.getInt(length);
+			buffer.limit(length);
+			crc.reset();
+			crc.update(buffer);
+			if ((int) crc.getValue() != checksum)
+				throw new StreamCorruptedException("checksum mismatch in block " + blocks);
+			buffer.position(0);
+		}
+	}
+
+	private static void putVarLong(ByteBuffer buffer, long v) {
+		while ((v & ~0x7FL) != 0) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	private static long getVarLong(ByteBuffer buffer) throws StreamCorruptedException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (!buffer.hasRemaining())
+				throw new StreamCorruptedException("truncated varint");
+			byte b = buffer.get();
+			v |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return v;
+		}
+		throw new StreamCorruptedException("varint too long");
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new EOFException("snapshot ends early");
+	}
+}
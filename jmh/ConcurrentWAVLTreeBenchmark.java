@@ -0,0 +1,111 @@
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * ConcurrentWAVLTreeBenchmark
+ *
+ * Multi threaded throughput of ConcurrentWAVLTree against a WAVLTree behind a
+ * single synchronized monitor, on a read heavy mix: 95% search/select and
+ * 5% insert/delete over random keys.
+ *
+ * usage: java -cp target/classes:target/test-classes ConcurrentWAVLTreeBenchmark [maxThreads] [size] [seconds]
+ *
+ */
+
+public class ConcurrentWAVLTreeBenchmark {
+
+	private static final String VALUE = "info";
+
+	/**
+	 * interface Target
+	 *
+	 * the tree operations the mix runs
+	 */
+	private interface Target {
+		String search(int k);
+		String select(int i);
+		int insert(int k, String i);
+		int delete(int k);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+		double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+		System.out.printf("%8s %-14s %14s%n", "threads", "impl", "ops/s");
+		run(1, size, seconds / 2, "optimistic", false); //warm up
+		run(1, size, seconds / 2, "synchronized", false);
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			run(threads, size, seconds, "optimistic", true);
+			run(threads, size, seconds, "synchronized", true);
+		}
+	}
+
+	private static void run(int threads, int size, double seconds, String impl, boolean print) throws InterruptedException {
+		Target target = impl.equals("optimistic") ? optimistic(preload(size)) : synchronizedTree(preload(size));
+		LongAdder ops = new LongAdder();
+		AtomicBoolean stop = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				long count = 0;
+				while (!stop.get()) {
+					int op = rnd.nextInt(100);
+					int k = rnd.nextInt(2 * size);
+					if (op < 48)
+						target.search(k);
+					else if (op < 95)
+						target.select(1 + rnd.nextInt(size));
+					else if (op < 98)
+						target.insert(k, VALUE);
+					else
+						target.delete(k);
+					count++;
+				}
+				ops.add(count);
+				done.countDown();
+			}).start();
+		}
+		long start = System.nanoTime();
+		Thread.sleep((long) (seconds * 1000));
+		stop.set(true);
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		if (print)
+			System.out.printf("%8d %-14s %14.0f%n", threads, impl, ops.sum() * 1e9 / elapsed);
+	}
+
+	private static WAVLTree preload(int size) {
+		int[] keys = new int[size];
+		String[] values = new String[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = 2 * i; //every other key, so inserts and deletes both hit
+		Arrays.fill(values, VALUE);
+		return WAVLTree.fromSorted(keys, values);
+	}
+
+	private static Target optimistic(WAVLTree tree) {
+		ConcurrentWAVLTree concurrent = new ConcurrentWAVLTree(tree);
+		return new Target() {
+			public String search(int k) { return concurrent.search(k); }
+			public String select(int i) { return concurrent.select(i); }
+			public int insert(int k, String i) { return concurrent.insert(k, i); }
+			public int delete(int k) { return concurrent.delete(k); }
+		};
+	}
+
+	private static Target synchronizedTree(WAVLTree tree) {
+		return new Target() {
+			public synchronized String search(int k) { return tree.search(k); }
+			public synchronized String select(int i) { return tree.select(i); }
+			public synchronized int insert(int k, String i) { return tree.insert(k, i); }
+			public synchronized int delete(int k) { return tree.delete(k); }
+		};
+	}
+}
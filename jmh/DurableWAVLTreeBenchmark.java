@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * DurableWAVLTreeBenchmark
+ *
+ * Durable write throughput of DurableWAVLTree for different group commit batch
+ * sizes: threads insert and delete random keys for a while, and every batch size
+ * reports ops/s and the number of operations sharing one fsync. A batch larger
+ * than the number of writing threads can never fill up, so every commit waits
+ * the full maxDelay.
+ *
+ * usage: java -cp target/classes:target/test-classes DurableWAVLTreeBenchmark [dir] [threads] [seconds] [maxDelayMicros]
+ *
+ */
+
+public class DurableWAVLTreeBenchmark {
+
+	private static final int[] BATCHES = {1, 4, 16, 64, 256};
+
+	public static void main(String[] args) throws Exception {
+		Path base = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("wavl-wal");
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+		long delayMicros = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+
+		System.out.printf("%8s %8s %14s %10s%n", "batch", "threads", "ops/s", "ops/sync");
+		for (int batch : BATCHES) {
+			Path dir = base.resolve("batch" + batch);
+			try (DurableWAVLTree tree = DurableWAVLTree.open(dir, batch, delayMicros, TimeUnit.MICROSECONDS)) {
+				long ops = run(tree, threads, seconds);
+				System.out.printf("%8d %8d %14.0f %10.1f%n", batch, threads, ops / seconds, (double) ops / Math.max(1, tree.syncs()));
+			}
+			for (String file : new String[] {"wal", "snapshot"})
+				Files.deleteIfExists(dir.resolve(file));
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	private static long run(DurableWAVLTree tree, int threads, double seconds) throws InterruptedException {
+		LongAdder ops = new LongAdder();
+		AtomicBoolean stop = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				long count = 0;
+				try {
+					while (!stop.get()) {
+						int k = rnd.nextInt(1 << 20);
+						if (tree.insert(k, "info") == -1)
+							tree.delete(k);
+						count++;
+					}
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+				ops.add(count);
+				done.countDown();
+			}).start();
+		}
+		Thread.sleep((long) (seconds * 1000));
+		stop.set(true);
+		done.await();
+		return ops.sum();
+	}
+}
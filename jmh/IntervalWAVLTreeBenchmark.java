@@ -0,0 +1,78 @@
+import java.util.Random;
+
+/**
+ *
+ * IntervalWAVLTreeBenchmark
+ *
+ * Query throughput of IntervalWAVLTree against a linear scan of the same
+ * intervals. size random intervals of length up to maxLength are inserted, then
+ * random stabbing and overlap queries (of length up to maxLength too) stream their
+ * results to a callback that only counts them. The scan tests every interval.
+ *
+ * For every size it reports insert throughput, queries/s for both, and the
+ * average number of intervals a query reports.
+ *
+ * usage: java -cp target/classes:target/test-classes IntervalWAVLTreeBenchmark [maxLength] [queries] [seed]
+ *
+ */
+
+public class IntervalWAVLTreeBenchmark {
+
+	private static final int[] SIZES = {1_000, 10_000, 100_000, 1_000_000};
+	private static final long SPACE = 1L << 32; //starts are drawn from [0, SPACE)
+
+	private static long sink; //keeps the JIT from dropping the queries
+
+	public static void main(String[] args) {
+		long maxLength = args.length > 0 ? Long.parseLong(args[0]) : 1 << 16;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+		System.out.printf("%10s %-8s %14s %14s %14s %10s%n", "size", "query", "inserts/s", "tree q/s", "scan q/s", "hits/q");
+		run(SIZES[0], maxLength, queries, seed, false); //warm up
+		for (int size : SIZES)
+			run(size, maxLength, queries, seed, true);
+	}
+
+	private static void run(int size, long maxLength, int queries, long seed, boolean print) {
+		Random rnd = new Random(seed);
+		long[] start = new long[size];
+		long[] end = new long[size];
+		for (int i = 0; i < size; i++) {
+			start[i] = (long) (rnd.nextDouble() * SPACE);
+			end[i] = start[i] + (long) (rnd.nextDouble() * maxLength);
+		}
+		IntervalWAVLTree<String> tree = new IntervalWAVLTree<>(size);
+		long t = System.nanoTime();
+		for (int i = 0; i < size; i++)
+			tree.insert(start[i], end[i], "info");
+		double inserts = size * 1e9 / (System.nanoTime() - t);
+
+		long[] from = new long[queries];
+		long[] length = new long[queries];
+		for (int i = 0; i < queries; i++) {
+			from[i] = (long) (rnd.nextDouble() * SPACE);
+			length[i] = (long) (rnd.nextDouble() * maxLength);
+		}
+		int scanned = Math.max(1, Math.min(queries, (int) (10_000_000L / size))); //the scan is O(n) per query
+		for (String query : new String[] {"stab", "overlap"}) {
+			boolean stab = query.equals("stab");
+			long hits = 0;
+			t = System.nanoTime();
+			for (int i = 0; i < queries; i++)
+				hits += tree.overlap(from[i], stab ? from[i] : from[i] + length[i], (s, e, v) -> sink += s);
+			double treeRate = queries * 1e9 / (System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < scanned; i++) {
+				long to = stab ? from[i] : from[i] + length[i];
+				for (int j = 0; j < size; j++)
+					if (start[j] <= to && end[j] >= from[i])
+						sink += start[j];
+			}
+			double scanRate = scanned * 1e9 / (System.nanoTime() - t);
+			if (print)
+				System.out.printf("%10d %-8s %14.0f %14.0f %14.0f %10.2f%n", size, query, inserts, treeRate, scanRate, (double) hits / queries);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * RelaxedWAVLTreeBenchmark
+ *
+ * Write latency of WAVLTree under bursty load, with and without relaxed balance.
+ * A tree of size random keys takes bursts of burst random inserts and deletes,
+ * every write timed on its own. Between bursts the relaxed trees catch up, which
+ * is timed separately as the idle time cost. "relaxed/k" defers at most k writes,
+ * so with k below the burst length some writes catch up inline.
+ *
+ * For every mode it reports write throughput within the bursts, the p50, p99,
+ * p99.9 and max write latency, catchUp time per burst and the largest height seen.
+ *
+ * usage: java -cp target/classes:target/test-classes RelaxedWAVLTreeBenchmark [size] [burst] [bursts] [seed]
+ *
+ */
+
+public class RelaxedWAVLTreeBenchmark {
+
+	private static final String VALUE = "info";
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int burst = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+		int bursts = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+		int[] modes = {0, burst, burst / 10}; //maxDeferred, 0 for strict balance
+
+		System.out.printf("%-16s %14s %10s %10s %10s %10s %14s %8s%n",
+				"mode", "writes/s", "p50(ns)", "p99(ns)", "p99.9(ns)", "max(ns)", "catchUp(us)", "height");
+		for (int maxDeferred : modes) //warm up
+			run(size / 10, burst, bursts / 10, maxDeferred, seed, false);
+		for (int maxDeferred : modes)
+			run(size, burst, bursts, maxDeferred, seed, true);
+	}
+
+	private static void run(int size, int burst, int bursts, int maxDeferred, long seed, boolean print) {
+		Random rnd = new Random(seed);
+		int[] keys = new int[size];
+		String[] values = new String[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = 2 * i; //every other key, so inserts and deletes both hit
+		Arrays.fill(values, VALUE);
+		WAVLTree tree = WAVLTree.fromSorted(keys, values);
+		if (maxDeferred > 0)
+			tree.setRelaxedBalance(maxDeferred);
+
+		long[] lat = new long[burst * bursts];
+		long writing = 0;
+		long catchingUp = 0;
+		int height = 0;
+		for (int b = 0; b < bursts; b++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < burst; i++) {
+				int k = rnd.nextInt(2 * size);
+				long t = System.nanoTime();
+				if (tree.insert(k, VALUE) == -1)
+					tree.delete(k);
+				lat[b * burst + i] = System.nanoTime() - t;
+			}
+			writing += System.nanoTime() - start;
+			height = Math.max(height, height(tree.getRoot()));
+			long t = System.nanoTime();
+			tree.catchUp();
+			catchingUp += System.nanoTime() - t;
+		}
+
+		if (!print)
+			return;
+		Arrays.sort(lat);
+		System.out.printf("%-16s %14.0f %10d %10d %10d %10d %14.1f %8d%n",
+				maxDeferred == 0 ? "strict" : "relaxed/" + maxDeferred,
+				lat.length * 1e9 / writing,
+				lat[lat.length / 2], lat[(int) (lat.length * 0.99)], lat[(int) (lat.length * 0.999)], lat[lat.length - 1],
+				catchingUp / 1e3 / bursts, height);
+	}
+
+	private static int height(WAVLTree.WAVLNode node) {
+		if (node == null || !node.isInnerNode())
+			return 0;
+		return 1 + Math.max(height(node.getLeft()), height(node.getRight()));
+	}
+}
@@ -0,0 +1,269 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ *
+ * WAVLTreeBenchmark
+ *
+ * A stand alone benchmark for the hot paths of WAVLTree (insert, delete, search,
+ * select and keysToArray), with java.util.TreeMap and ConcurrentSkipListMap
+ * as baselines in the same run.
+ *
+ * For every key stream (sequential, random, zipfian, sawtooth, nearsorted) and every size
+ * 10^3 .. 10^maxExp it reports ops/s, p99 latency, allocated bytes per operation
+ * (for insert, about the size of a node)
+ * and the average rebalance count returned by insert/delete. WAVLTree+finger is
+ * WAVLTree with finger search on, WAVLTree+index with the hash index on, and
+ * FrozenWAVLTree is its freeze() after the inserts. churn deletes and re-inserts
+ * a key of a full tree, WAVLTree+pool with node pooling on. pollMin/pollMax drain a filled
+ * tree from one end, against delete(min) on WAVLTree, pollFirstEntry on the maps
+ * and a java.util.PriorityQueue.
+ *
+ * The JMH benchmarks in jmh/bench (mvn -Pjmh verify) time the hot paths of
+ * WAVLTree and the baselines again under JMH, with the gc profiler for the
+ * allocation. This harness gives the overview of every variant in one run.
+ *
+ * usage: java -cp target/classes:target/test-classes WAVLTreeBenchmark [maxExp] [seed]
+ * (sizes above 10^6 need a large heap, e.g. -Xmx16g for 10^8)
+ *
+ */
+
+public class WAVLTreeBenchmark {
+
+	private static final String VALUE = "info";
+	private static final int SAMPLES = 1 << 16; //max latency samples per measurement
+	private static final String[] STREAMS = {"sequential", "random", "zipfian", "sawtooth", "nearsorted"};
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * interface Op
+	 *
+	 * a single measured operation on the i'th key of the stream.
+	 * returns the rebalance count of the operation (0 if not relevant)
+	 */
+	private interface Op {
+		int run(int i);
+	}
+
+	public static void main(String[] args) {
+		int maxExp = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		System.out.printf("%-10s %10s %-22s %-12s %14s %10s %10s %10s%n",
+				"stream", "n", "impl", "op", "ops/s", "p99(ns)", "B/op", "rebal/op");
+		for (String stream : STREAMS) {
+			run(stream, (int) Math.min(100_000, Math.pow(10, maxExp)), seed, false); //warm up
+			for (int exp = 3; exp <= maxExp; exp++)
+				run(stream, (int) Math.pow(10, exp), seed, true);
+		}
+	}
+
+	private static void run(String stream, int n, long seed, boolean print) {
+		int[] keys = keys(stream, n, seed);
+		int[] queries = keys(stream, n, seed + 1);
+
+		WAVLTree tree = new WAVLTree();
+		measure(stream, n, "WAVLTree", "insert", n, i -> Math.max(0, tree.insert(keys[i], VALUE)), print);
+		measure(stream, n, "WAVLTree", "search", n, i -> tree.search(queries[i]) == null ? 0 : 0, print);
+		int size = tree.size();
+		measure(stream, n, "WAVLTree", "select", n, i -> tree.select(1 + (int) ((long) i * 7919 % size)) == null ? 0 : 0, print);
+		measure(stream, n, "WAVLTree", "rank", n, i -> tree.rank(queries[i]) * 0, print);
+		measure(stream, n, "WAVLTree", "keysToArray", 1, i -> tree.keysToArray().length * 0, print);
+
+		FrozenWAVLTree frozen = tree.freeze();
+		measure(stream, n, "FrozenWAVLTree", "search", n, i -> frozen.search(queries[i]) == null ? 0 : 0, print);
+		measure(stream, n, "FrozenWAVLTree", "select", n, i -> frozen.select(1 + (int) ((long) i * 7919 % size)) == null ? 0 : 0, print);
+		measure(stream, n, "FrozenWAVLTree", "rank", n, i -> frozen.rank(queries[i]) * 0, print);
+
+		measure(stream, n, "WAVLTree", "churn", n, i -> (tree.delete(keys[i]) + tree.insert(keys[i], VALUE)) * 0, print);
+		measure(stream, n, "WAVLTree", "delete", n, i -> Math.max(0, tree.delete(keys[i])), print);
+
+		WAVLTree pooled = new WAVLTree();
+		pooled.setNodePool(1 << 10);
+		fill(pooled, keys);
+		measure(stream, n, "WAVLTree+pool", "churn", n, i -> (pooled.delete(keys[i]) + pooled.insert(keys[i], VALUE)) * 0, print);
+
+		WAVLTree finger = new WAVLTree();
+		finger.setFingerSearch(true);
+		measure(stream, n, "WAVLTree+finger", "insert", n, i -> Math.max(0, finger.insert(keys[i], VALUE)), print);
+		measure(stream, n, "WAVLTree+finger", "search", n, i -> finger.search(queries[i]) == null ? 0 : 0, print);
+		measure(stream, n, "WAVLTree+finger", "delete", n, i -> Math.max(0, finger.delete(keys[i])), print);
+
+		WAVLTree indexed = new WAVLTree();
+		indexed.setHashIndex(true);
+		measure(stream, n, "WAVLTree+index", "insert", n, i -> Math.max(0, indexed.insert(keys[i], VALUE)), print);
+		measure(stream, n, "WAVLTree+index", "search", n, i -> indexed.search(queries[i]) == null ? 0 : 0, print);
+		measure(stream, n, "WAVLTree+index", "delete", n, i -> Math.max(0, indexed.delete(keys[i])), print);
+
+		CompactWAVLTree compact = new CompactWAVLTree();
+		measure(stream, n, "CompactWAVLTree", "insert", n, i -> Math.max(0, compact.insert(keys[i], VALUE)), print);
+		measure(stream, n, "CompactWAVLTree", "search", n, i -> compact.search(queries[i]) == null ? 0 : 0, print);
+		measure(stream, n, "CompactWAVLTree", "select", n, i -> compact.select(1 + (int) ((long) i * 7919 % size)) == null ? 0 : 0, print);
+		measure(stream, n, "CompactWAVLTree", "keysToArray", 1, i -> compact.keysToArray().length * 0, print);
+		measure(stream, n, "CompactWAVLTree", "delete", n, i -> Math.max(0, compact.delete(keys[i])), print);
+
+		ArrayWAVLTree array = new ArrayWAVLTree();
+		measure(stream, n, "ArrayWAVLTree", "insert", n, i -> Math.max(0, array.insert(keys[i], VALUE)), print);
+		measure(stream, n, "ArrayWAVLTree", "search", n, i -> array.search(queries[i]) == null ? 0 : 0, print);
+		measure(stream, n, "ArrayWAVLTree", "select", n, i -> array.select(1 + (int) ((long) i * 7919 % size)) == null ? 0 : 0, print);
+		measure(stream, n, "ArrayWAVLTree", "keysToArray", 1, i -> array.keysToArray().length * 0, print);
+		measure(stream, n, "ArrayWAVLTree", "delete", n, i -> Math.max(0, array.delete(keys[i])), print);
+
+		WAVLTree queue = new WAVLTree();
+		fill(queue, keys);
+		measure(stream, n, "WAVLTree", "pollMin", n, i -> queue.pollMin() == null ? 0 : 0, print);
+		fill(queue, keys);
+		measure(stream, n, "WAVLTree", "pollMax", n, i -> queue.pollMax() == null ? 0 : 0, print);
+		fill(queue, keys);
+		measure(stream, n, "WAVLTree", "delete(min)", n, i -> queue.empty() ? 0 : Math.max(0, queue.delete(queue.peekMin().getKey())), print);
+
+		PriorityQueue<Integer> heap = new PriorityQueue<>();
+		for (int k : keys)
+			heap.add(k);
+		measure(stream, n, "PriorityQueue", "pollMin", n, i -> heap.poll() == null ? 0 : 0, print);
+
+		baseline(stream, n, "TreeMap", new TreeMap<>(), keys, queries, print);
+		baseline(stream, n, "ConcurrentSkipListMap", new ConcurrentSkipListMap<>(), keys, queries, print);
+	}
+
+	private static void baseline(String stream, int n, String impl, NavigableMap<Integer, String> map,
+			int[] keys, int[] queries, boolean print) {
+		measure(stream, n, impl, "insert", n, i -> map.put(keys[i], VALUE) == null ? 0 : 0, print);
+		measure(stream, n, impl, "search", n, i -> map.get(queries[i]) == null ? 0 : 0, print);
+		measure(stream, n, impl, "keysToArray", 1, i -> {
+			int[] arr = new int[map.size()];
+			int j = 0;
+			for (int k : map.keySet())
+				arr[j++] = k;
+			return 0;
+		}, print);
+		measure(stream, n, impl, "delete", n, i -> map.remove(keys[i]) == null ? 0 : 0, print);
+		for (int k : keys)
+			map.put(k, VALUE);
+		measure(stream, n, impl, "pollMin", n, i -> map.pollFirstEntry() == null ? 0 : 0, print);
+	}
+
+	private static void fill(WAVLTree tree, int[] keys) {
+		for (int k : keys)
+			tree.insert(k, VALUE);
+	}
+
+	/**
+	 * private static void measure(...)
+	 *
+	 * runs op for i = 0 .. count-1, timing the whole loop for throughput and
+	 * every stride'th operation on its own for the latency percentile.
+	 */
+	private static void measure(String stream, int n, String impl, String opName, int count, Op op, boolean print) {
+		int stride = Math.max(1, count / SAMPLES);
+		long[] lat = new long[(count + stride - 1) / stride];
+		int sampled = 0;
+		long rebalances = 0;
+		long thread = Thread.currentThread().getId();
+
+		long bytes = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			if (i % stride == 0) {
+				long t = System.nanoTime();
+				rebalances += op.run(i);
+				lat[sampled++] = System.nanoTime() - t;
+			}
+			else
+				rebalances += op.run(i);
+		}
+		long elapsed = System.nanoTime() - start;
+		bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+
+		if (!print)
+			return;
+		Arrays.sort(lat, 0, sampled);
+		long p99 = lat[Math.min(sampled - 1, (int) (sampled * 0.99))];
+		boolean rebalancing = impl.contains("WAVLTree") && (opName.equals("insert") || opName.equals("delete"));
+		System.out.printf("%-10s %10d %-22s %-12s %14.0f %10d %10.1f %10s%n",
+				stream, n, impl, opName,
+				count * 1e9 / elapsed, p99, (double) bytes / count,
+				rebalancing ? String.format("%.3f", (double) rebalances / count) : "-");
+	}
+
+	/**
+	 * public static int[] keys(String stream, int n, long seed)
+	 *
+	 * returns n keys of the given stream, all in the range [0, n).
+	 * the JMH benchmarks (jmh/bench) run on the same streams
+	 */
+	public static int[] keys(String stream, int n, long seed) {
+		int[] keys = new int[n];
+		Random rnd = new Random(seed);
+		switch (stream) {
+		case "sequential":
+			for (int i = 0; i < n; i++)
+				keys[i] = i;
+			break;
+		case "random": //a random permutation
+			for (int i = 0; i < n; i++)
+				keys[i] = i;
+			for (int i = n - 1; i > 0; i--) {
+				int j = rnd.nextInt(i + 1);
+				int temp = keys[i];
+				keys[i] = keys[j];
+				keys[j] = temp;
+			}
+			break;
+		case "zipfian": //skewed towards a few hot keys, with repeats
+			zipfian(keys, n, 0.99, rnd);
+			break;
+		case "sawtooth": //interleaved ascending runs
+			int teeth = Math.max(1, (int) Math.sqrt(n));
+			int run = (n + teeth - 1) / teeth;
+			for (int i = 0; i < n; i++)
+				keys[i] = (i % run) * teeth + i / run;
+			break;
+		case "nearsorted": //time ordered ids with small local reorderings
+			for (int i = 0; i < n; i++)
+				keys[i] = i;
+			for (int i = 0; i + 1 < n; i++) {
+				int j = Math.min(n - 1, i + rnd.nextInt(16));
+				int temp = keys[i];
+				keys[i] = keys[j];
+				keys[j] = temp;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("unknown stream " + stream);
+		}
+		return keys;
+	}
+
+	/**
+	 * zipfian generator over [0, n) (Gray et al., "Quickly generating billion-record synthetic databases")
+	 * hot ranks are scattered over the key space so they don't form a sequential prefix.
+	 */
+	private static void zipfian(int[] keys, int n, double theta, Random rnd) {
+		double zetan = 0;
+		for (int i = 1; i <= n; i++)
+			zetan += 1 / Math.pow(i, theta);
+		double zeta2 = 1 + 1 / Math.pow(2, theta);
+		double alpha = 1 / (1 - theta);
+		double eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+		for (int i = 0; i < keys.length; i++) {
+			double u = rnd.nextDouble();
+			double uz = u * zetan;
+			long rank;
+			if (uz < 1)
+				rank = 0;
+			else if (uz < zeta2)
+				rank = 1;
+			else
+				rank = (long) (n * Math.pow(eta * u - eta + 1, alpha));
+			keys[i] = (int) (Math.floorMod(rank * 0x9E3779B1L, (long) n));
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ *
+ * Keys
+ *
+ * The key stream of a benchmark: every stream of WAVLTreeBenchmark at sizes up
+ * to 10^8, and a second stream of the same kind for the searches. The states
+ * holding the structures take it in their @Setup.
+ *
+ */
+
+@State(Scope.Thread)
+public class Keys {
+
+	@Param({"sequential", "random", "zipfian", "sawtooth", "nearsorted"})
+	String stream;
+
+	@Param({"1000", "1000000", "100000000"})
+	int size;
+
+	int[] keys;
+	int[] queries;
+
+	@Setup
+	public void setUp() {
+		keys = Structure.keys(stream, size, 42);
+		queries = Structure.keys(stream, size, 43);
+	}
+}
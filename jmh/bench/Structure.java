@@ -0,0 +1,259 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ *
+ * Structure
+ *
+ * One of the benchmarked structures (WAVLTree, WAVLTree+pool, TreeMap or
+ * ConcurrentSkipListMap) behind the operations the benchmarks time, each taking
+ * the item's key. WAVLTree+pool is a WAVLTree with node pooling on.
+ *
+ * JMH doesn't allow benchmarks in the default package, and a named package can't
+ * name the tree classes, so the trees are reached through MethodHandles kept in
+ * static final fields. The JIT takes those as constants and inlines through them
+ * like through direct calls.
+ *
+ */
+
+abstract class Structure {
+
+	static final String VALUE = "info";
+
+	abstract int insert(int k);
+
+	abstract int delete(int k);
+
+	abstract Object search(int k);
+
+	abstract int[] keysToArray();
+
+	abstract int size();
+
+	/**
+	 * static Structure create(String impl)
+	 *
+	 * returns an empty structure of the given kind
+	 */
+	static Structure create(String impl) {
+		switch (impl) {
+		case "WAVLTree":
+			return new Tree();
+		case "WAVLTree+pool":
+			Tree tree = new Tree();
+			tree.setNodePool(1 << 10);
+			return tree;
+		case "TreeMap":
+			return new Map(new TreeMap<>());
+		case "ConcurrentSkipListMap":
+			return new Map(new ConcurrentSkipListMap<>());
+		default:
+			throw new IllegalArgumentException("unknown impl " + impl);
+		}
+	}
+
+	/**
+	 * static int[] keys(String stream, int n, long seed)
+	 *
+	 * returns n keys of the given stream, the same streams as WAVLTreeBenchmark's
+	 */
+	static int[] keys(String stream, int n, long seed) {
+		try {
+			return (int[]) KEYS.invokeExact(stream, n, seed);
+		}
+		catch (Throwable e) {
+			throw rethrow(e);
+		}
+	}
+
+	private static final MethodHandle KEYS = handle("WAVLTreeBenchmark", "keys", true,
+			MethodType.methodType(int[].class, String.class, int.class, long.class));
+
+	/**
+	 * private static MethodHandle handle(String className, String name, boolean isStatic, MethodType type)
+	 *
+	 * returns a handle on the public method name of the default package class
+	 * className, with the receiver (of an instance method) typed as Object
+	 */
+	private static MethodHandle handle(String className, String name, boolean isStatic, MethodType type) {
+		try {
+			Class<?> c = Class.forName(className);
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			if (isStatic)
+				return lookup.findStatic(c, name, type);
+			return lookup.findVirtual(c, name, type).asType(type.insertParameterTypes(0, Object.class));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable e) {
+		if (e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		throw new IllegalStateException(e);
+	}
+
+	/**
+	 * static final class Tree
+	 *
+	 * a WAVLTree, which also takes select by rank
+	 */
+	static final class Tree extends Structure {
+
+		private static final MethodHandle NEW;
+		static {
+			try {
+				NEW = MethodHandles.publicLookup().findConstructor(Class.forName("WAVLTree"), MethodType.methodType(void.class))
+						.asType(MethodType.methodType(Object.class));
+			}
+			catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+		private static final MethodHandle INSERT = handle("WAVLTree", "insert", false,
+				MethodType.methodType(int.class, int.class, String.class));
+		private static final MethodHandle DELETE = handle("WAVLTree", "delete", false,
+				MethodType.methodType(int.class, int.class));
+		private static final MethodHandle SEARCH = handle("WAVLTree", "search", false,
+				MethodType.methodType(String.class, int.class));
+		private static final MethodHandle SELECT = handle("WAVLTree", "select", false,
+				MethodType.methodType(String.class, int.class));
+		private static final MethodHandle KEYS_TO_ARRAY = handle("WAVLTree", "keysToArray", false,
+				MethodType.methodType(int[].class));
+		private static final MethodHandle SIZE = handle("WAVLTree", "size", false,
+				MethodType.methodType(int.class));
+		private static final MethodHandle SET_NODE_POOL = handle("WAVLTree", "setNodePool", false,
+				MethodType.methodType(void.class, int.class));
+
+		final Object tree;
+
+		Tree() {
+			try {
+				tree = (Object) NEW.invokeExact();
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		@Override
+		int insert(int k) {
+			try {
+				return (int) INSERT.invokeExact(tree, k, VALUE);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		@Override
+		int delete(int k) {
+			try {
+				return (int) DELETE.invokeExact(tree, k);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		@Override
+		Object search(int k) {
+			try {
+				return (String) SEARCH.invokeExact(tree, k);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		Object select(int i) {
+			try {
+				return (String) SELECT.invokeExact(tree, i);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		@Override
+		int[] keysToArray() {
+			try {
+				return (int[]) KEYS_TO_ARRAY.invokeExact(tree);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		@Override
+		int size() {
+			try {
+				return (int) SIZE.invokeExact(tree);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+
+		void setNodePool(int maxPooled) {
+			try {
+				SET_NODE_POOL.invokeExact(tree, maxPooled);
+			}
+			catch (Throwable e) {
+				throw rethrow(e);
+			}
+		}
+	}
+
+	/**
+	 * static final class Map
+	 *
+	 * a java.util baseline
+	 */
+	static final class Map extends Structure {
+
+		private final NavigableMap<Integer, String> map;
+
+		Map(NavigableMap<Integer, String> map) {
+			this.map = map;
+		}
+
+		@Override
+		int insert(int k) {
+			return map.put(k, VALUE) == null ? 0 : -1;
+		}
+
+		@Override
+		int delete(int k) {
+			return map.remove(k) == null ? -1 : 0;
+		}
+
+		@Override
+		Object search(int k) {
+			return map.get(k);
+		}
+
+		@Override
+		int[] keysToArray() {
+			int[] arr = new int[map.size()];
+			int i = 0;
+			for (int k : map.keySet())
+				arr[i++] = k;
+			return arr;
+		}
+
+		@Override
+		int size() {
+			return map.size();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * WAVLTreeBulk
+ *
+ * JMH time to insert a whole key stream into an empty structure, and to delete
+ * it all again from a full one, for WAVLTree with TreeMap and
+ * ConcurrentSkipListMap as baselines in the same run.
+ *
+ * Every iteration times one pass over the stream (building the structure for
+ * the pass is not timed), so the time is per stream: divide by size for an
+ * operation's share. With -prof gc, gc.alloc.rate.norm is per stream too, but
+ * counts the whole iteration, setup included. Building an empty structure
+ * allocates next to nothing, while building a full one is an insert pass, so
+ * delete's own allocation is its figure less insert's for the same impl.
+ * The rebalance counts insert and delete return are summed into the rebalances
+ * counter, reported next to the time as the sum over the measured passes (0 for
+ * the maps). WAVLTreeLatency has the per operation latency percentiles.
+ *
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g") //room for 10^8 keys
+public class WAVLTreeBulk {
+
+	/**
+	 * @State Empty
+	 *
+	 * an empty structure, new for every pass
+	 */
+	@State(Scope.Thread)
+	public static class Empty {
+
+		@Param({"WAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+		String impl;
+
+		Structure structure;
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			structure = null; //let the last pass' structure go first
+			structure = Structure.create(impl);
+		}
+	}
+
+	/**
+	 * @State Full
+	 *
+	 * a structure holding every key of the stream, filled again for every pass
+	 */
+	@State(Scope.Thread)
+	public static class Full {
+
+		@Param({"WAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+		String impl;
+
+		Structure structure;
+
+		@Setup(Level.Iteration)
+		public void setUp(Keys stream) {
+			structure = null;
+			structure = Structure.create(impl);
+			for (int k : stream.keys)
+				structure.insert(k);
+		}
+	}
+
+	/**
+	 * @State Rebalances
+	 *
+	 * the rebalancing operations of a pass, as insert and delete count them
+	 * (a key that is already there, or missing, counts nothing)
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Rebalances {
+
+		public long rebalances;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rebalances = 0;
+		}
+
+		void add(int count) {
+			if (count > 0)
+				rebalances += count;
+		}
+	}
+
+	@Benchmark
+	public void insert(Keys stream, Empty s, Rebalances counter) {
+		for (int k : stream.keys)
+			counter.add(s.structure.insert(k));
+	}
+
+	@Benchmark
+	public void delete(Keys stream, Full s, Rebalances counter) {
+		for (int k : stream.keys)
+			counter.add(s.structure.delete(k));
+	}
+}
@@ -0,0 +1,136 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * WAVLTreeLatency
+ *
+ * JMH latency distribution (p50, p90, p99, p99.9 ...) of single inserts and
+ * deletes on a full structure, for WAVLTree with TreeMap and
+ * ConcurrentSkipListMap as baselines in the same run.
+ *
+ * The structure holds every key of the stream but a window of up to 1024 that
+ * moves along it: before every timed insert a Level.Invocation setup deletes the
+ * key at the window's front, and the insert puts back the one at its back, which
+ * left the structure 1024 operations earlier (deletes likewise), so the setup
+ * doesn't warm the timed key's path. In SampleTime mode only the benchmark call
+ * is timed, so the setup's own cost stays out of the percentiles. JMH doesn't
+ * report @AuxCounters in SampleTime mode, so the rebalance counts are
+ * WAVLTreeBulk's.
+ *
+ */
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g") //room for 10^8 keys
+public class WAVLTreeLatency {
+
+	/**
+	 * @State Window
+	 *
+	 * a structure holding every key of the stream but those in the window.
+	 * JMH would give another state's helper method an instance of its own, so
+	 * the window moves itself in its own Level.Invocation setup.
+	 */
+	@State(Scope.Thread)
+	public abstract static class Window {
+
+		@Param({"WAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+		String impl;
+
+		Structure structure;
+		int[] keys;
+		int width;
+		int cursor; //the window's back, for inserts, or its front, for deletes
+		int key; //the key of the next timed operation
+
+		void fill(Keys stream) {
+			keys = stream.keys;
+			width = Math.min(1 << 10, keys.length / 2);
+			structure = Structure.create(impl);
+			for (int k : keys)
+				structure.insert(k);
+		}
+
+		int at(int i) {
+			return keys[i % keys.length];
+		}
+
+		void advance() {
+			key = keys[cursor];
+			cursor = cursor + 1 == keys.length ? 0 : cursor + 1;
+		}
+	}
+
+	/**
+	 * @State ToInsert
+	 *
+	 * the window is [cursor, cursor + width): moves its front on, and lets the
+	 * timed insert put back its back
+	 */
+	@State(Scope.Thread)
+	public static class ToInsert extends Window {
+
+		@Setup
+		public void setUp(Keys stream) {
+			fill(stream);
+			for (int i = 0; i < width; i++)
+				structure.delete(keys[i]);
+		}
+
+		@Setup(Level.Invocation)
+		public void next() {
+			structure.delete(at(cursor + width));
+			advance();
+		}
+	}
+
+	/**
+	 * @State ToDelete
+	 *
+	 * the window is [cursor - width, cursor): puts its back in again, and lets
+	 * the timed delete take the key at its front
+	 */
+	@State(Scope.Thread)
+	public static class ToDelete extends Window {
+
+		@Setup
+		public void setUp(Keys stream) {
+			fill(stream);
+			for (int i = keys.length - width; i < keys.length; i++)
+				structure.delete(keys[i]);
+		}
+
+		@Setup(Level.Invocation)
+		public void next() {
+			structure.insert(at(cursor + keys.length - width));
+			advance();
+		}
+	}
+
+	@Benchmark
+	public int insert(ToInsert s) {
+		return s.structure.insert(s.key);
+	}
+
+	@Benchmark
+	public int delete(ToDelete s) {
+		return s.structure.delete(s.key);
+	}
+}
@@ -0,0 +1,147 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * WAVLTreeOps
+ *
+ * JMH throughput of the single key operations on a full structure: search,
+ * select and keysToArray of WAVLTree, with TreeMap and ConcurrentSkipListMap
+ * as baselines in the same run (select only on WAVLTree, the maps have none).
+ * churn deletes a key of the full structure and inserts it back, on WAVLTree
+ * with node pooling on too (WAVLTree+pool).
+ *
+ * With -prof gc, gc.alloc.rate.norm is the bytes allocated per operation. For
+ * churn that is a node per operation on WAVLTree and none with pooling.
+ *
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g") //room for 10^8 keys
+public class WAVLTreeOps {
+
+	/**
+	 * @State Full
+	 *
+	 * a structure holding every key of the stream, and a cursor over the keys
+	 */
+	@State(Scope.Thread)
+	public static class Full {
+
+		@Param({"WAVLTree", "TreeMap", "ConcurrentSkipListMap"})
+		String impl;
+
+		Structure structure;
+		int[] keys;
+		int[] queries;
+		int cursor;
+
+		@Setup
+		public void setUp(Keys stream) {
+			keys = stream.keys;
+			queries = stream.queries;
+			structure = Structure.create(impl);
+			for (int k : keys)
+				structure.insert(k);
+		}
+
+		int next() {
+			int i = cursor;
+			cursor = i + 1 == keys.length ? 0 : i + 1;
+			return i;
+		}
+	}
+
+	/**
+	 * @State Churned
+	 *
+	 * a structure holding every key of the stream, for churn
+	 */
+	@State(Scope.Thread)
+	public static class Churned {
+
+		@Param({"WAVLTree", "WAVLTree+pool", "TreeMap", "ConcurrentSkipListMap"})
+		String impl;
+
+		Structure structure;
+		int[] keys;
+		int cursor;
+
+		@Setup
+		public void setUp(Keys stream) {
+			keys = stream.keys;
+			structure = Structure.create(impl);
+			for (int k : keys)
+				structure.insert(k);
+		}
+
+		int next() {
+			int i = cursor;
+			cursor = i + 1 == keys.length ? 0 : i + 1;
+			return keys[i];
+		}
+	}
+
+	/**
+	 * @State FullTree
+	 *
+	 * a WAVLTree holding every key of the stream, for select
+	 */
+	@State(Scope.Thread)
+	public static class FullTree {
+
+		Structure.Tree tree;
+		int items; //distinct keys, zipfian streams repeat some
+		int cursor;
+
+		@Setup
+		public void setUp(Keys stream) {
+			tree = new Structure.Tree();
+			for (int k : stream.keys)
+				tree.insert(k);
+			items = tree.size();
+		}
+
+		int next() {
+			cursor = (int) ((cursor + 7919L) % items); //strides over the ranks
+			return cursor + 1;
+		}
+	}
+
+	@Benchmark
+	public Object search(Full s) {
+		return s.structure.search(s.queries[s.next()]);
+	}
+
+	@Benchmark
+	public Object select(FullTree s) {
+		return s.tree.select(s.next());
+	}
+
+	@Benchmark
+	public int[] keysToArray(Full s) {
+		return s.structure.keysToArray();
+	}
+
+	@Benchmark
+	public int churn(Churned s) {
+		int k = s.next();
+		return s.structure.delete(k) + s.structure.insert(k);
+	}
+}
@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * CompactWAVLTreeTest
+ *
+ * Runs the same random inserts and deletes on a CompactWAVLTree and a WAVLTree,
+ * which rebalance the same way, and checks they agree on every rebalance count,
+ * the keys, values, select, min and max.
+ *
+ */
+
+public class CompactWAVLTreeTest {
+
+	@Test
+	public void randomInsertsAndDeletesMatchWAVLTree() {
+		Random rnd = new Random(23);
+		for (int round = 0; round < 50; round++) {
+			CompactWAVLTree compact = new CompactWAVLTree();
+			WAVLTree tree = new WAVLTree();
+			int range = round % 2 == 0 ? 100 : 10000; //small ranges hit the same keys often
+			for (int op = 0; op < 2000; op++) {
+				int k = rnd.nextInt(range); //WAVLTree takes key -1 for an external node
+				if (rnd.nextInt(3) > 0)
+					assertEquals(tree.insert(k, String.valueOf(k)), compact.insert(k, String.valueOf(k)), "insert " + k);
+				else
+					assertEquals(tree.delete(k), compact.delete(k), "delete " + k);
+				assertEquals(tree.search(k), compact.search(k));
+				if (op % 100 == 0)
+					assertSame(tree, compact);
+			}
+			assertSame(tree, compact);
+			while (!tree.empty()) {
+				int k = tree.keysToArray()[rnd.nextInt(tree.size())];
+				assertEquals(tree.delete(k), compact.delete(k), "delete " + k);
+			}
+			assertSame(tree, compact);
+		}
+	}
+
+	@Test
+	public void sortedInsertsAndDeletesMatchWAVLTree() {
+		CompactWAVLTree compact = new CompactWAVLTree();
+		WAVLTree tree = new WAVLTree();
+		for (int k = 0; k < 5000; k++) //every other insert rotates
+			assertEquals(tree.insert(k, String.valueOf(k)), compact.insert(k, String.valueOf(k)));
+		assertSame(tree, compact);
+		for (int k = 0; k < 5000; k += 2)
+			assertEquals(tree.delete(k), compact.delete(k));
+		for (int k = 4999; k > 0; k -= 2)
+			assertEquals(tree.delete(k), compact.delete(k));
+		assertSame(tree, compact);
+	}
+
+	private static void assertSame(WAVLTree tree, CompactWAVLTree compact) {
+		assertEquals(tree.size(), compact.size());
+		assertEquals(tree.empty(), compact.empty());
+		assertArrayEquals(tree.keysToArray(), compact.keysToArray());
+		assertArrayEquals(tree.infoToArray(), compact.infoToArray());
+		assertEquals(tree.min(), compact.min());
+		assertEquals(tree.max(), compact.max());
+		for (int i = 0; i <= tree.size() + 1; i++)
+			assertEquals(tree.select(i), compact.select(i), "select " + i);
+	}
+}
@@ -0,0 +1,33 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * ConcurrentWAVLTreeTest
+ *
+ * Reads through the wrapper must give the tree's answers without writing to it,
+ * also when relaxed balance left the tree higher than a WAVL tree can be.
+ *
+ */
+
+public class ConcurrentWAVLTreeTest {
+
+	@Test
+	public void readsOfAHighRelaxedTreeAreRightAndLeaveTheFinger() {
+		WAVLTree tree = new WAVLTree();
+		tree.setFingerSearch(true);
+		tree.setRelaxedBalance(1000);
+		for (int k = 1; k <= 200; k++)
+			tree.insert(k, "v" + k); //ascending deferred inserts leave a chain of 200
+		tree.setFinger(null);
+		ConcurrentWAVLTree concurrent = new ConcurrentWAVLTree(tree);
+		for (int k = 1; k <= 200; k++) {
+			assertEquals("v" + k, concurrent.search(k));
+			assertEquals("v" + k, concurrent.select(k));
+		}
+		assertNull(concurrent.search(201));
+		assertNull(tree.getFinger());
+	}
+}
@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * DurableWAVLTreeTest
+ *
+ * Reopens the tree's directory after checkpoints, damaged logs and failed writes,
+ * and checks it holds exactly the writes that were durable.
+ *
+ */
+
+public class DurableWAVLTreeTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void theLogIsReplayedOverTheSnapshot() throws IOException {
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		Random random = new Random(5);
+		try (DurableWAVLTree tree = open()) {
+			for (int op = 0; op < 2000; op++) {
+				if (op == 1000)
+					tree.checkpoint();
+				write(tree, expected, random.nextInt(300), random);
+			}
+			tree.insert(1000, null); //logged without a value
+			expected.put(1000, null);
+		}
+		assertTrue(Files.size(dir.resolve("wal")) > 0);
+		try (DurableWAVLTree tree = open()) {
+			assertContents(tree, expected);
+		}
+	}
+
+	@Test
+	public void aTornOrCorruptTailIsCutOff() throws IOException {
+		Path wal = dir.resolve("wal");
+		try (DurableWAVLTree tree = open()) {
+			for (int k = 1; k <= 3; k++)
+				tree.insert(k, "v" + k);
+		}
+		long size = Files.size(wal);
+		try (DurableWAVLTree tree = open()) {
+			tree.insert(4, "v4");
+		}
+		byte[] log = Files.readAllBytes(wal);
+		log[log.length - 1] ^= 1; //the checksum of the last record
+		Files.write(wal, log);
+		try (DurableWAVLTree tree = open()) {
+			assertArrayEquals(new int[] {1, 2, 3}, tree.keysToArray());
+		}
+		assertEquals(size, Files.size(wal));
+
+		Files.write(wal, new byte[] {9, 0, 0, 0, 1, 5}, StandardOpenOption.APPEND); //a record cut short
+		try (DurableWAVLTree tree = open()) {
+			assertArrayEquals(new int[] {1, 2, 3}, tree.keysToArray());
+			tree.insert(5, "v5");
+		}
+		try (DurableWAVLTree tree = open()) {
+			assertArrayEquals(new int[] {1, 2, 3, 5}, tree.keysToArray());
+			assertEquals("v5", tree.search(5));
+		}
+	}
+
+	@Test
+	public void aCrashBetweenTheSnapshotAndTheTruncateLosesNothing() throws IOException {
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		Random random = new Random(9);
+		try (DurableWAVLTree tree = open()) {
+			for (int op = 0; op < 2000; op++)
+				write(tree, expected, random.nextInt(100), random);
+		}
+		byte[] log = Files.readAllBytes(dir.resolve("wal"));
+		try (DurableWAVLTree tree = open()) {
+			tree.checkpoint();
+		}
+		Files.write(dir.resolve("wal"), log); //as if the truncate never reached the disk
+		for (int i = 0; i < 2; i++) {
+			try (DurableWAVLTree tree = open()) {
+				assertContents(tree, expected); //replaying records the snapshot holds changes nothing
+			}
+		}
+	}
+
+	@Test
+	public void aFailedLogWriteFailsTheReadsToo() throws IOException {
+		try (DurableWAVLTree tree = open()) {
+			tree.insert(1, "a");
+			Thread.currentThread().interrupt(); //an interrupted write closes the log
+			try {
+				assertThrows(IOException.class, () -> tree.insert(2, "b"));
+			}
+			finally {
+				Thread.interrupted();
+			}
+			assertThrows(UncheckedIOException.class, () -> tree.search(2));
+			assertThrows(UncheckedIOException.class, () -> tree.size());
+			assertThrows(IOException.class, () -> tree.delete(1));
+		}
+		try (DurableWAVLTree tree = open()) {
+			assertArrayEquals(new int[] {1}, tree.keysToArray());
+			assertNull(tree.search(2));
+			assertEquals("a", tree.search(1));
+		}
+	}
+
+	/**
+	 * private static void write(DurableWAVLTree tree, TreeMap<Integer, String> expected, int k, Random random)
+	 *
+	 * deletes k if it is there, or else inserts it with a new value, so a key's
+	 * records alternate and its values differ between inserts
+	 */
+	private static void write(DurableWAVLTree tree, TreeMap<Integer, String> expected, int k, Random random) throws IOException {
+		if (expected.containsKey(k)) {
+			expected.remove(k);
+			assertTrue(tree.delete(k) >= 0);
+		}
+		else {
+			String value = "v" + k + "." + random.nextInt(1000);
+			expected.put(k, value);
+			assertTrue(tree.insert(k, value) >= 0);
+		}
+	}
+
+	private static void assertContents(DurableWAVLTree tree, TreeMap<Integer, String> expected) {
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray());
+		assertArrayEquals(expected.values().toArray(new String[0]), tree.infoToArray());
+	}
+
+	private DurableWAVLTree open() throws IOException {
+		return DurableWAVLTree.open(dir, 1, 0, TimeUnit.MILLISECONDS);
+	}
+}
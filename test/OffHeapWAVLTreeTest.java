@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * OffHeapWAVLTreeTest
+ *
+ * Closes and reopens a file backed tree, across remaps as it grows, and checks
+ * the reopened tree holds the same items; and that a file which isn't a whole
+ * tree is rejected instead of re-formatted.
+ *
+ */
+
+public class OffHeapWAVLTreeTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	public void aReopenedTreeHoldsTheSameItems() throws IOException {
+		Path file = dir.resolve("tree");
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		Random rnd = new Random(3);
+		for (int round = 0; round < 4; round++) {
+			try (OffHeapWAVLTree tree = OffHeapWAVLTree.open(file, 16)) {
+				assertContents(tree, expected); //as closed last round
+				for (int op = 0; op < 3000; op++) { //grows past the 16 slots of a new file
+					int k = rnd.nextInt(5000);
+					if (rnd.nextInt(4) > 0) {
+						String i = rnd.nextInt(10) == 0 ? null : "v" + k;
+						boolean present = expected.containsKey(k);
+						assertEquals(present, tree.insert(k, i) == -1);
+						if (!present)
+							expected.put(k, i);
+					}
+					else if (expected.containsKey(k) && expected.get(k) != null) {
+						tree.delete(k);
+						expected.remove(k);
+					}
+				}
+				assertContents(tree, expected);
+			}
+		}
+		long grown = Files.size(file);
+		try (OffHeapWAVLTree tree = OffHeapWAVLTree.open(file, 16)) {
+			assertContents(tree, expected);
+		}
+		assertEquals(grown, Files.size(file));
+	}
+
+	@Test
+	public void anEmptyFileIsFormatted() throws IOException {
+		Path file = Files.createFile(dir.resolve("tree"));
+		try (OffHeapWAVLTree tree = OffHeapWAVLTree.open(file, 16)) {
+			assertEquals(0, tree.size());
+			tree.insert(1, "one");
+		}
+		try (OffHeapWAVLTree tree = OffHeapWAVLTree.open(file, 16)) {
+			assertEquals("one", tree.search(1));
+		}
+	}
+
+	@Test
+	public void aShortOrForeignFileIsRejected() throws IOException {
+		Path file = dir.resolve("tree");
+		Files.write(file, new byte[10]); //shorter than the header
+		assertThrows(IOException.class, () -> OffHeapWAVLTree.open(file, 16));
+		assertEquals(10, Files.size(file));
+		Files.write(file, new byte[100]); //no magic
+		assertThrows(IOException.class, () -> OffHeapWAVLTree.open(file, 16));
+
+		Path cut = dir.resolve("cut");
+		try (OffHeapWAVLTree tree = OffHeapWAVLTree.open(cut, 16)) {
+			for (int k = 0; k < 100; k++)
+				tree.insert(k, "v" + k);
+		}
+		byte[] bytes = Files.readAllBytes(cut);
+		Files.write(cut, Arrays.copyOf(bytes, bytes.length - 1)); //the last slot cut short
+		assertThrows(IOException.class, () -> OffHeapWAVLTree.open(cut, 16));
+		assertEquals(bytes.length - 1, Files.size(cut));
+	}
+
+	private static void assertContents(OffHeapWAVLTree tree, TreeMap<Integer, String> expected) {
+		assertEquals(expected.size(), tree.size());
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray());
+		assertArrayEquals(expected.values().toArray(new String[0]), tree.infoToArray());
+		int i = 1;
+		for (var entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), tree.search(entry.getKey()));
+			assertEquals(entry.getValue(), tree.select(i++));
+		}
+		assertNull(tree.select(i));
+		assertEquals(expected.isEmpty() ? null : expected.firstEntry().getValue(), tree.min());
+		assertEquals(expected.isEmpty() ? null : expected.lastEntry().getValue(), tree.max());
+	}
+}
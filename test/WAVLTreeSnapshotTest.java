@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * WAVLTreeSnapshotTest
+ *
+ * Writes trees with writeTo and reads them back with readFrom: the extreme keys,
+ * null, non ASCII and larger than a block values, and many blocks must survive,
+ * and a damaged snapshot must be refused.
+ *
+ */
+
+public class WAVLTreeSnapshotTest {
+
+	@Test
+	public void aSnapshotReadsBackTheSameTree() throws IOException {
+		WAVLTree tree = new WAVLTree();
+		Random rnd = new Random(17);
+		for (int j = 0; j < 20000; j++) { //several blocks
+			int k = rnd.nextInt();
+			tree.insert(k == -1 ? 0 : k, rnd.nextInt(5) == 0 ? null : "v" + k); //key -1 is WAVLTree's external node
+		}
+		tree.insert(Integer.MIN_VALUE, "min");
+		tree.insert(Integer.MIN_VALUE + 1, null);
+		tree.insert(Integer.MAX_VALUE - 1, "\u00e9\u4e2d\ud83d\ude00"); //2, 3 and 4 byte UTF-8
+		tree.insert(Integer.MAX_VALUE, "x".repeat(200000)); //larger than a block
+		assertSameTree(tree, WAVLTree.readFrom(channel(write(tree))));
+	}
+
+	@Test
+	public void emptyAndSingleItemTreesReadBack() throws IOException {
+		WAVLTree tree = new WAVLTree();
+		assertSameTree(tree, WAVLTree.readFrom(channel(write(tree))));
+		tree.insert(Integer.MIN_VALUE, null);
+		assertSameTree(tree, WAVLTree.readFrom(channel(write(tree))));
+		tree = new WAVLTree();
+		tree.insert(Integer.MAX_VALUE, "");
+		assertSameTree(tree, WAVLTree.readFrom(channel(write(tree))));
+	}
+
+	@Test
+	public void aFlippedByteIsRefused() throws IOException {
+		WAVLTree tree = new WAVLTree();
+		for (int k = 0; k < 10000; k++)
+			tree.insert(k * 7, k % 3 == 0 ? null : "value " + k);
+		byte[] snapshot = write(tree);
+		for (int at : new int[] {0, 5, 20, snapshot.length / 2, snapshot.length - 1}) { //header, frame, payloads, checksum
+			byte[] damaged = snapshot.clone();
+			damaged[at] ^= 0x10;
+			assertThrows(StreamCorruptedException.class, () -> WAVLTree.readFrom(channel(damaged)), "byte " + at);
+		}
+		assertThrows(EOFException.class, () -> WAVLTree.readFrom(channel(Arrays.copyOf(snapshot, snapshot.length - 1))));
+	}
+
+	private static byte[] write(WAVLTree tree) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		tree.writeTo(Channels.newChannel(out));
+		return out.toByteArray();
+	}
+
+	private static ReadableByteChannel channel(byte[] bytes) {
+		return Channels.newChannel(new ByteArrayInputStream(bytes));
+	}
+
+	private static void assertSameTree(WAVLTree expected, WAVLTree actual) {
+		assertEquals(expected.size(), actual.size());
+		assertArrayEquals(expected.keysToArray(), actual.keysToArray());
+		assertArrayEquals(expected.infoToArray(), actual.infoToArray());
+		for (int i = 1; i <= expected.size(); i += 97)
+			assertEquals(expected.select(i), actual.select(i));
+		assertEquals(expected.min(), actual.min());
+		assertEquals(expected.max(), actual.max());
+	}
+}
@@ -0,0 +1,380 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * WAVLTreeTest
+ *
+ * Regression tests for the delete and select fixes: each sequence below broke the
+ * rank rule, min or select before them. Every tree is checked against the rank
+ * rule, subtree sizes, parent pointers and a TreeMap of the same items.
+ *
+ */
+
+public class WAVLTreeTest {
+
+	@Test
+	public void deleteLeafWhoseSiblingNeedsADoubleRotation() {
+		assertDelete(new int[] {2, 4, 3, 6, 7, 1, 5}, 1);
+	}
+
+	@Test
+	public void deleteBinaryWithUnaryPredecessorRebalancesAbovePredecessor() {
+		assertDelete(new int[] {3, 2, 6, 4, 5, 1, 7}, 3);
+		assertDelete(new int[] {4, 6, 7, 2, 3, 1, 5}, 3);
+	}
+
+	@Test
+	public void doubleRotationDemotesZTwice() {
+		assertDelete(new int[] {6, 2, 3, 1, 4, 7, 5}, 2);
+		assertDelete(new int[] {5, 6, 7, 1, 3, 2, 4}, 3);
+	}
+
+	@Test
+	public void minFollowsPredecessorMovedIntoBinaryNode() {
+		WAVLTree tree = assertDelete(new int[] {2, 3, 1}, 2);
+		assertEquals(1, tree.peekMin().getKey());
+		tree.delete(1);
+		assertEquals("3", tree.min());
+		assertDelete(new int[] {2, 4, 1, 3}, 2);
+	}
+
+	@Test
+	public void selectEveryRank() {
+		WAVLTree tree = new WAVLTree();
+		for (int k = 1; k <= 7; k++)
+			tree.insert(k, String.valueOf(k));
+		for (int i = 1; i <= 7; i++) //i equal to the left subtree's size went right
+			assertEquals(String.valueOf(i), tree.select(i));
+	}
+
+	@Test
+	public void randomInsertsAndDeletesMatchTreeMap() {
+		Random rnd = new Random(42);
+		for (int round = 0; round < 100; round++) {
+			WAVLTree tree = new WAVLTree();
+			TreeMap<Integer, String> expected = new TreeMap<>();
+			for (int op = 0; op < 200; op++) {
+				int k = rnd.nextInt(100);
+				if (rnd.nextInt(3) > 0) {
+					assertEquals(expected.containsKey(k), tree.insert(k, String.valueOf(k)) == -1);
+					expected.put(k, String.valueOf(k));
+				}
+				else {
+					assertEquals(!expected.containsKey(k), tree.delete(k) == -1);
+					expected.remove(k);
+				}
+				assertTree(tree, expected);
+			}
+		}
+	}
+
+	@Test
+	public void rotationsLeaveTheSharedExternalNodeAlone() {
+		WAVLTree tree = new WAVLTree();
+		for (int k = 1; k <= 100; k++) //every other insert rotates
+			tree.insert(k, String.valueOf(k));
+		for (int k = 1; k <= 100; k += 3)
+			tree.delete(k);
+		WAVLTree.WAVLNode ext = tree.getRoot();
+		while (ext.isInnerNode())
+			ext = ext.getLeft();
+		assertNull(ext.getParent()); //trees on other threads share it
+	}
+
+	@Test
+	public void deleteHelpersLeaveTheSharedExternalNodeAlone() {
+		WAVLTree other = new WAVLTree();
+		for (int k = 1; k <= 3; k++)
+			other.insert(k, String.valueOf(k));
+		WAVLTree tree = new WAVLTree();
+		tree.insert(5, "a");
+		WAVLTree.WAVLNode ext = tree.getRoot().getLeft();
+		assertThrows(IllegalArgumentException.class, () -> tree.deleteUnary(tree.getRoot()));
+		assertThrows(IllegalArgumentException.class, () -> tree.deleteBinary(tree.getRoot()));
+		tree.deleteLeaf(tree.getRoot());
+		assertTrue(tree.empty());
+		assertThrows(IllegalArgumentException.class, () -> tree.deleteLeaf(ext));
+		assertThrows(IllegalArgumentException.class, () -> tree.deleteUnary(ext));
+		assertThrows(IllegalArgumentException.class, () -> tree.deleteBinary(ext));
+		assertNull(ext.getLeft());
+		assertNull(ext.getRight());
+		assertNull(ext.getParent());
+		assertEquals(-1, ext.rank);
+		assertEquals(0, ext.getSubtreeSize());
+
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertNull(other.select(0)));
+		for (int i = 1; i <= 3; i++)
+			assertEquals(String.valueOf(i), other.select(i));
+		assertRanks(other.getRoot());
+	}
+
+	@Test
+	public void joinSplitAndSetOperationsKeepTheSettings() {
+		Augmentation<Long> sum = Augmentation.sum(Long::parseLong);
+		int[] events = new int[1];
+		WAVLTree a = configured(sum, events);
+		WAVLTree b = new WAVLTree();
+		b.addAugmentation(Augmentation.count(v -> true)); //other aggregates than a's
+		for (int k = 0; k < 300; k += 3) {
+			a.insert(k, String.valueOf(k));
+			b.insert(k + 1, String.valueOf(k + 1));
+		}
+
+		WAVLTree union = WAVLTree.union(a, b);
+		assertSettings(union, sum, events);
+		assertEquals(200, union.size());
+		assertEquals(Long.valueOf(29800), union.aggregate(sum, 0, 299)); //0 + 1 + 3 + 4 + ... + 297 + 298
+
+		WAVLTree larger = union.split(151);
+		assertSettings(larger, sum, events);
+		assertSettings(union, sum, events);
+		WAVLTree joined = WAVLTree.join(union, 152, "152", larger);
+		assertSettings(joined, sum, events);
+		assertEquals(Long.valueOf(29800 + 152), joined.aggregate(sum, 0, 299));
+
+		WAVLTree c = configured(sum, events);
+		c.setCapacity(50, true);
+		for (int k = 300; k < 340; k++)
+			c.insert(k, String.valueOf(k));
+		WAVLTree bounded = WAVLTree.union(c, joined); //over c's capacity, the smallest keys go
+		assertEquals(50, bounded.size());
+		assertEquals(285, bounded.peekMin().getKey());
+		assertEquals(Long.valueOf(285 + 286 + 288 + 289 + 291 + 292 + 294 + 295 + 297 + 298), bounded.aggregate(sum, 0, 299));
+	}
+
+	private static WAVLTree configured(Augmentation<Long> sum, int[] events) {
+		WAVLTree tree = new WAVLTree();
+		tree.setCapacity(1000, true);
+		tree.setHashIndex(true);
+		tree.setRebalanceListener(stats -> events[0]++);
+		tree.addAugmentation(sum);
+		return tree;
+	}
+
+	private static void assertSettings(WAVLTree tree, Augmentation<Long> sum, int[] events) {
+		assertEquals(1000, tree.getCapacity());
+		int before = events[0];
+		assertTrue(tree.insert(-5, "0") >= 0);
+		assertEquals(before + 1, events[0]);
+		assertEquals("0", tree.search(-5));
+		tree.delete(-5);
+		assertNull(tree.search(-5));
+		assertEquals(tree.empty() ? Long.valueOf(0) : tree.aggregate(sum, Integer.MIN_VALUE, Integer.MAX_VALUE),
+				sumOfValues(tree));
+	}
+
+	private static Long sumOfValues(WAVLTree tree) {
+		long total = 0;
+		for (String v : tree.infoToArray())
+			total += Long.parseLong(v);
+		return total;
+	}
+
+	@Test
+	public void bulkCallsAreReportedOnce() {
+		WAVLTree tree = new WAVLTree();
+		List<int[]> events = new ArrayList<>();
+		tree.setRebalanceListener(stats -> events.add(new int[] {stats.operation, stats.result,
+				stats.promotions + stats.demotions + stats.doubleDemotions + stats.singleRotations + stats.doubleRotations}));
+		Random random = new Random(10);
+		int[] keys = new int[2000];
+		for (int j = 0; j < keys.length; j++)
+			keys[j] = random.nextInt(100000);
+		for (int k = 0; k < 100000; k += 7)
+			tree.insert(k, null);
+		events.clear();
+		assertBulk(events, tree.insertAll(keys, new String[keys.length], null));
+		tree.setRelaxedBalance(1000);
+		for (int k = 0; k < 500; k++)
+			tree.insert(-k, null);
+		assertEquals(500, events.size());
+		assertBulk(events, tree.catchUp());
+		tree.setRelaxedBalance(0);
+		assertBulk(events, tree.deleteAll(Arrays.copyOf(keys, 1000), null));
+		WAVLTree larger = tree.split(50000);
+		assertEquals(1, events.size());
+		assertEquals(RebalanceStats.BULK, events.get(0)[0]);
+		assertTrue(events.get(0)[2] > 0);
+		int k = larger.pollMin().getKey();
+		events.clear();
+		WAVLTree.join(tree, k, null, larger);
+		assertEquals(1, events.size()); //on the new tree, which has the listener too
+		assertEquals(RebalanceStats.BULK, events.get(0)[0]);
+	}
+
+	private static void assertBulk(List<int[]> events, int result) {
+		int[] last = events.get(events.size() - 1);
+		assertEquals(RebalanceStats.BULK, last[0]);
+		assertEquals(result, last[1]);
+		assertTrue(result > 0);
+		assertTrue(last[2] > 0); //the counts of the call reach the listener
+		events.clear();
+	}
+
+	@Test
+	public void readsStayCorrectWhileRebalancingIsDeferred() {
+		Random rnd = new Random(22);
+		WAVLTree tree = new WAVLTree();
+		tree.setRelaxedBalance(Integer.MAX_VALUE); //never catches up by itself
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int op = 0; op < 3000; op++) {
+			int k = rnd.nextInt(1000);
+			if (rnd.nextInt(3) > 0) {
+				assertEquals(expected.containsKey(k), tree.insert(k, String.valueOf(k)) == -1);
+				expected.put(k, String.valueOf(k));
+			}
+			else {
+				assertEquals(!expected.containsKey(k), tree.delete(k) == -1);
+				expected.remove(k);
+			}
+			if (op % 50 == 0)
+				assertItems(tree, expected);
+		}
+		assertTrue(tree.getDeferred() > 0);
+		assertItems(tree, expected);
+		assertTrue(tree.catchUp() > 0);
+		assertEquals(0, tree.getDeferred());
+		assertTree(tree, expected);
+	}
+
+	@Test
+	public void catchUpRestoresTheRankRule() {
+		WAVLTree tree = new WAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		tree.setRelaxedBalance(Integer.MAX_VALUE);
+		for (int k = 0; k < 2000; k++) { //sorted inserts: the longest possible spine
+			tree.insert(k, String.valueOf(k));
+			expected.put(k, String.valueOf(k));
+		}
+		tree.catchUp();
+		assertTree(tree, expected);
+		for (int k = 0; k < 2000; k += 3) { //deletes leave 2,2 leaves and 3 differences behind
+			tree.delete(k);
+			expected.remove(k);
+		}
+		for (int k = 1999; k > 1000; k -= 3) {
+			tree.delete(k);
+			expected.remove(k);
+		}
+		tree.catchUp();
+		assertTree(tree, expected);
+		tree.setRelaxedBalance(0);
+		for (int k = 2000; k < 2100; k++) { //balanced writes again
+			tree.insert(k, String.valueOf(k));
+			expected.put(k, String.valueOf(k));
+			assertEquals(0, tree.getDeferred());
+		}
+		assertTree(tree, expected);
+	}
+
+	@Test
+	public void theWriteThatReachesMaxDeferredCatchesUp() {
+		WAVLTree tree = new WAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		tree.setRelaxedBalance(8);
+		int catchUps = 0;
+		for (int k = 0; k < 1000; k++) {
+			int before = tree.getDeferred();
+			if (k < 600 || k % 2 == 0) {
+				tree.insert(k, String.valueOf(k));
+				expected.put(k, String.valueOf(k));
+			}
+			else {
+				tree.delete(k - 401);
+				expected.remove(k - 401);
+			}
+			int after = tree.getDeferred();
+			assertTrue(after < 8);
+			if (after < before) { //the eighth deferred write caught up itself
+				assertEquals(7, before);
+				assertEquals(0, after);
+				assertTree(tree, expected);
+				catchUps++;
+			}
+		}
+		assertTrue(catchUps > 10);
+		assertItems(tree, expected);
+	}
+
+	@Test
+	public void fromSortedRejectsANegativeSize() {
+		assertThrows(IllegalArgumentException.class,
+				() -> WAVLTree.fromSorted(Collections.<Integer, String>emptyMap().entrySet().iterator(), -1));
+	}
+
+	private static WAVLTree assertDelete(int[] inserts, int k) {
+		WAVLTree tree = new WAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int key : inserts) {
+			tree.insert(key, String.valueOf(key));
+			expected.put(key, String.valueOf(key));
+		}
+		assertTrue(tree.delete(k) >= 0);
+		expected.remove(k);
+		assertTree(tree, expected);
+		return tree;
+	}
+
+	private static void assertTree(WAVLTree tree, TreeMap<Integer, String> expected) {
+		assertRanks(tree.getRoot());
+		assertItems(tree, expected);
+	}
+
+	/**
+	 * private static void assertItems(WAVLTree tree, TreeMap<Integer, String> expected)
+	 *
+	 * checks what the reads see, without the rank rule, which deferred writes may break
+	 */
+	private static void assertItems(WAVLTree tree, TreeMap<Integer, String> expected) {
+		assertEquals(expected.size(), tree.size());
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray());
+		if (expected.isEmpty())
+			return;
+		assertEquals(expected.firstEntry().getValue(), tree.min());
+		assertEquals(expected.lastEntry().getValue(), tree.max());
+		int i = 1;
+		for (Map.Entry<Integer, String> e : expected.entrySet()) {
+			assertEquals(e.getValue(), tree.search(e.getKey()));
+			assertEquals(e.getValue(), tree.select(i++));
+		}
+	}
+
+	/**
+	 * private static int assertRanks(WAVLTree.WAVLNode node)
+	 *
+	 * checks the rank rule, subtree sizes and parent pointers below node,
+	 * returns the rank of node
+	 */
+	private static int assertRanks(WAVLTree.WAVLNode node) {
+		if (node == null || !node.isInnerNode())
+			return -1;
+		int left = assertRanks(node.getLeft());
+		int right = assertRanks(node.getRight());
+		assertTrue(node.rank - left == 1 || node.rank - left == 2, "rank difference at " + node.getKey());
+		assertTrue(node.rank - right == 1 || node.rank - right == 2, "rank difference at " + node.getKey());
+		if (left == -1 && right == -1)
+			assertEquals(0, node.rank, "leaf rank at " + node.getKey());
+		assertEquals(node.getLeft().getSubtreeSize() + node.getRight().getSubtreeSize() + 1, node.getSubtreeSize());
+		if (left != -1)
+			assertEquals(node, node.getLeft().getParent());
+		if (right != -1)
+			assertEquals(node, node.getRight().getParent());
+		return node.rank;
+	}
+}